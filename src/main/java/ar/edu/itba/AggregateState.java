@@ -0,0 +1,215 @@
+package ar.edu.itba;
+
+import java.util.Iterator;
+import org.apache.tinkerpop.gremlin.structure.Vertex;
+import org.apache.tinkerpop.gremlin.structure.VertexProperty;
+
+/**
+ * Partial aggregation of a set of durations, from which any {@link Aggregation} can be finished.
+ * States of disjoint sets are merged in constant time, so merging calls or rolling up does not need
+ * to keep every duration. Quantiles and distinct members are kept in sketches of bounded size.
+ *
+ * Each call stores its state in the "duration*" properties, the quantile sketch only if the call
+ * has different durations. Calls loaded before states existed have a list of "duration" values
+ * instead, which is read as well. In memory, the sketch is only allocated once the state has
+ * different durations, so states of equal durations take no more than their parts.
+ */
+public class AggregateState {
+
+  public static final String COUNT = "durationCount";
+  public static final String SUM = "durationSum";
+  public static final String MIN = "durationMin";
+  public static final String MAX = "durationMax";
+  public static final String SUM_OF_SQUARES = "durationSumSq";
+  public static final String SKETCH = "durationSketch";
+
+  private long count;
+  private double sum;
+  private double min = Double.POSITIVE_INFINITY;
+  private double max = Double.NEGATIVE_INFINITY;
+  private double sumOfSquares;
+  // Null while every duration is the same.
+  private QuantileSketch quantiles;
+  // Members taking part in the aggregated calls, only kept if added.
+  private HyperLogLog members;
+
+  public static AggregateState of(double value) {
+    AggregateState state = new AggregateState();
+    state.add(value);
+    return state;
+  }
+
+  /**
+   * Reads the state stored in the call.
+   */
+  public static AggregateState of(Vertex call) {
+    return read(call, true);
+  }
+
+  /**
+   * Reads the parts of the state stored in the call, without deserializing its sketch, for the
+   * aggregations that do not need it.
+   */
+  public static AggregateState partsOf(Vertex call) {
+    return read(call, false);
+  }
+
+  private static AggregateState read(Vertex call, boolean withSketch) {
+    AggregateState state = new AggregateState();
+    if (call.property(COUNT).isPresent()) {
+      state.count = call.<Long>value(COUNT);
+      state.sum = call.<Double>value(SUM);
+      state.min = call.<Double>value(MIN);
+      state.max = call.<Double>value(MAX);
+      state.sumOfSquares = call.<Double>value(SUM_OF_SQUARES);
+      // Without a sketch, a single duration or several equal ones.
+      if (withSketch && call.property(SKETCH).isPresent()) {
+        state.quantiles = QuantileSketch.fromBytes(call.<byte[]>value(SKETCH));
+      }
+    } else {
+      Iterator<Number> durations = call.values("duration");
+      durations.forEachRemaining(duration -> {
+        double value = duration.doubleValue();
+        if (withSketch) {
+          state.add(value);
+        } else {
+          state.merge(1, value, value, value, value * value);
+        }
+      });
+    }
+    return state;
+  }
+
+  public void add(double value) {
+    if (quantiles != null || (count > 0 && value != min)) {
+      sketch().add(value);
+    }
+    count++;
+    sum += value;
+    min = Math.min(min, value);
+    max = Math.max(max, value);
+    sumOfSquares += value * value;
+  }
+
+  public void addMember(long memberId) {
+    if (members == null) {
+      members = new HyperLogLog();
+    }
+    members.add(memberId);
+  }
+
+  /**
+   * Merges the state of other durations given by its parts, leaving the quantile sketch untouched.
+   */
+  public AggregateState merge(long count, double sum, double min, double max,
+      double sumOfSquares) {
+    this.count += count;
+    this.sum += sum;
+    this.min = Math.min(this.min, min);
+    this.max = Math.max(this.max, max);
+    this.sumOfSquares += sumOfSquares;
+    return this;
+  }
+
+  public AggregateState merge(AggregateState other) {
+    if (other.quantiles != null) {
+      sketch().merge(other.quantiles);
+    } else if (other.count > 0 && (quantiles != null || (count > 0 && other.min != min))) {
+      sketch().add(other.min, other.count);
+    }
+    count += other.count;
+    sum += other.sum;
+    min = Math.min(min, other.min);
+    max = Math.max(max, other.max);
+    sumOfSquares += other.sumOfSquares;
+    if (other.members != null) {
+      if (members == null) {
+        members = new HyperLogLog();
+      }
+      members.merge(other.members);
+    }
+    return this;
+  }
+
+  /**
+   * Stores the state in the call, replacing its durations.
+   */
+  public void write(Vertex call) {
+    Iterator<VertexProperty<Object>> durations = call.properties("duration");
+    while (durations.hasNext()) {
+      durations.next().remove();
+    }
+    call.property(COUNT, count);
+    call.property(SUM, sum);
+    call.property(MIN, min);
+    call.property(MAX, max);
+    call.property(SUM_OF_SQUARES, sumOfSquares);
+    if (quantiles != null && count > 1 && min != max) {
+      call.property(SKETCH, quantiles.toBytes());
+    } else if (call.property(SKETCH).isPresent()) {
+      call.property(SKETCH).remove();
+    }
+  }
+
+  public long count() {
+    return count;
+  }
+
+  public double sum() {
+    return sum;
+  }
+
+  public double min() {
+    return min;
+  }
+
+  public double max() {
+    return max;
+  }
+
+  public double sumOfSquares() {
+    return sumOfSquares;
+  }
+
+  /**
+   * Population variance of the durations.
+   */
+  public double variance() {
+    double mean = sum / count;
+    return Math.max(sumOfSquares / count - mean * mean, 0);
+  }
+
+  /**
+   * Approximate duration at the given quantile, between 0 and 1.
+   */
+  public double quantile(double quantile) {
+    if (quantiles == null) {
+      if (min != max) {
+        throw new IllegalStateException("Quantiles of states merged by their parts are unknown");
+      }
+      return min;
+    }
+    // Bucket values are approximate, but never outside the actual range.
+    return Math.min(Math.max(quantiles.quantile(quantile), min), max);
+  }
+
+  /**
+   * Sketch of the durations, allocated with the ones counted so far, which are all the same.
+   */
+  private QuantileSketch sketch() {
+    if (quantiles == null) {
+      quantiles = new QuantileSketch();
+      if (count > 0) {
+        quantiles.add(min, count);
+      }
+    }
+    return quantiles;
+  }
+
+  /**
+   * Approximate amount of distinct members added.
+   */
+  public long distinctMembers() {
+    return members == null ? 0 : members.estimate();
+  }
+}
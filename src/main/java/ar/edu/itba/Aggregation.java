@@ -1,6 +1,48 @@
 package ar.edu.itba;
 
+import java.util.NoSuchElementException;
+
 public enum Aggregation {
 	
-	ARRAY, SUM, AVG, MAX, MIN, COUNT;
+	ARRAY, SUM, AVG, MAX, MIN, COUNT,
+	VARIANCE, STDDEV,
+	// Approximate percentiles.
+	P50, P95, P99,
+	// Approximate amount of distinct members taking part in the calls.
+	DISTINCT_MEMBERS;
+	
+	/**
+	 * Finishes the aggregation from the partial state of the values.
+	 */
+	public double of(AggregateState state) {
+		if (state.count() == 0 && this != SUM && this != COUNT && this != DISTINCT_MEMBERS) {
+			throw new NoSuchElementException("No values to aggregate");
+		}
+		switch (this) {
+		case AVG:
+			return state.sum() / state.count();
+		case COUNT:
+			return state.count();
+		case MAX:
+			return state.max();
+		case MIN:
+			return state.min();
+		case SUM:
+			return state.sum();
+		case VARIANCE:
+			return state.variance();
+		case STDDEV:
+			return Math.sqrt(state.variance());
+		case P50:
+			return state.quantile(0.5);
+		case P95:
+			return state.quantile(0.95);
+		case P99:
+			return state.quantile(0.99);
+		case DISTINCT_MEMBERS:
+			return state.distinctMembers();
+		default:
+			throw new IllegalArgumentException("Unknown aggregation: " + this);
+		}
+	}
 }
@@ -1,5 +1,7 @@
 package ar.edu.itba;
 
+import java.io.IOException;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Iterator;
@@ -20,6 +22,10 @@ import ch.qos.logback.classic.LoggerContext;
 
 public class App {
 
+  // OLAP queries that are answered from the materialized views, if set.
+  private static final List<String> VIEW_QUERIES =
+      Arrays.asList("1_1", "1_3", "1_4", "1_5", "1_6");
+
   private JanusGraph graph;
   private JanusGraphManagement mgmt;
 
@@ -30,6 +36,10 @@ public class App {
     // TODO: Add arguments to be able to clean graph from cli.
     String path = args[0];
     String query = args[1];
+    if (query.startsWith("bench_")) {
+      Benchmarks.run(path, query);
+      return;
+    }
     boolean printTuples = args.length >= 3 ? Boolean.valueOf(args[2]) : false;
     String user = null;
     int threshold = -1;
@@ -55,18 +65,57 @@ public class App {
     QueriesNotOlap.printTuples = printTuples;
     FinalQueriesNotOlap.printTuples = printTuples;
     FinalQueriesKnownAlgorithms.printTuples = printTuples;
+    CubeQueries.printTuples = printTuples;
+
+    // Loader options, passed as system properties (i.e: -Dloader.workers=8).
+    int callWorkers = Integer.getInteger("loader.workers", 1);
+    boolean batchLoading = Boolean.getBoolean("loader.batchLoading");
+    int idBlockSize = Integer.getInteger("loader.idBlockSize", -1);
+    // Stores the keys of the ancestors on the calls, and lets the queries use them.
+    boolean hierarchyKeys = Boolean.getBoolean("hierarchyKeys");
+    // Rolls up by climbing and minimizing the graph instead of in memory, which modifies it.
+    QueriesOlap.virtualRollUp = !Boolean.getBoolean("destructiveRollUp");
+    // Threads that scan the calls of the not OLAP queries (i.e: -Dquery.workers=16).
+    QueriesNotOlap.workers =
+        Integer.getInteger("query.workers", Runtime.getRuntime().availableProcessors());
+    // Overrides the aggregation of the queries (i.e: -Dquery.aggregation=P95).
+    String aggregation = System.getProperty("query.aggregation");
+    if (aggregation != null) {
+      QueriesOlap.aggregation = Aggregation.valueOf(aggregation);
+      QueriesNotOlap.aggregation = Aggregation.valueOf(aggregation);
+      CubeQueries.aggregation = Aggregation.valueOf(aggregation);
+      if ((query.endsWith("_cube") || query.startsWith("verify_"))
+          && !CubeQueries.supports(CubeQueries.aggregation)) {
+        throw new IllegalArgumentException(
+            aggregation + " is not supported by the fact table of query " + query);
+      }
+    }
+
+    // Group-bys routed to by the OLAP queries, as location:time levels (i.e: -Dviews=user:month).
+    String views = System.getProperty("views");
+    if (views != null) {
+      // Fails on unknown views before opening the graph.
+      MaterializedViews.parse(views);
+    }
 
     boolean isOpen = false;
     boolean wasCleaned = false;
     boolean cleanUp = false; // TODO: Enable?
     while (!isOpen) {
-      graph = JanusGraphFactory.build().set("storage.backend", "cassandra")
+      JanusGraphFactory.Builder builder = JanusGraphFactory.build()
+          .set("storage.backend", "cassandra")
           .set("storage.hostname", "node2,node3,node4")
           .set("storage.cassandra.replication-factor", 2)
           .set("storage.cassandra.keyspace", "tcolloca")
           .set("schema.default", "none").set("storage.username", "tcolloca")
-          .set("storage.password", "tcolloca")
-          .open();
+          .set("storage.password", "tcolloca");
+      if (batchLoading) {
+        builder.set("storage.batch-loading", true);
+      }
+      if (idBlockSize > 0) {
+        builder.set("ids.block-size", idBlockSize);
+      }
+      graph = builder.open();
       isOpen = true;
 
       if (cleanUp && !wasCleaned) {
@@ -74,6 +123,7 @@ public class App {
         isOpen = false;
         wasCleaned = true;
         JanusGraphCleanup.clear(graph);
+        clearStoredData(path);
         System.out.println("Closed and cleared graph");
       }
     }
@@ -84,7 +134,29 @@ public class App {
     System.out.println("Schema built");
 
     DataReader reader = new DataReader(graph, path);
+    reader.setCallWorkers(callWorkers);
+    reader.setHierarchyKeys(hierarchyKeys);
     reader.buildGraph();
+    // Keys are only read if every call was loaded with them.
+    QueriesNotOlap.useHierarchyKeys = hierarchyKeys && reader.callsHaveHierarchyKeys();
+    if (hierarchyKeys && !reader.callsHaveHierarchyKeys()) {
+      System.out.println("Calls were loaded without hierarchy keys, traversing the dimensions");
+    }
+    QueriesOlap.dictionary = reader.dictionary();
+    QueriesNotOlap.dictionary = reader.dictionary();
+    // Building the views extracts every fact, so they are only opened for the queries they answer.
+    if (views != null && VIEW_QUERIES.contains(query)) {
+      QueriesOlap.views = MaterializedViews.open(graph, Paths.get(path), views);
+    }
+    if (query.startsWith("final_")) {
+      // Path queries run over the phones that took part in calls together, stored with the data.
+      PhoneGraph phoneGraph = PhoneGraph.open(graph, Paths.get(path));
+      FinalQueriesNotOlap.phoneGraph = phoneGraph;
+      FinalQueriesKnownAlgorithms.phoneGraph = phoneGraph;
+      // Cross-checks the all pairs distances of the *_other queries with Floyd-Warshall.
+      FinalQueriesKnownAlgorithms.floydWarshall = Boolean.getBoolean("paths.floydWarshall");
+      FinalQueriesKnownAlgorithms.workers = QueriesNotOlap.workers;
+    }
 
     long start = System.currentTimeMillis();
     switch (query) {
@@ -158,18 +230,44 @@ public class App {
       case "final_2_d_other":
         FinalQueriesKnownAlgorithms.query2_d(graph, user, threshold);
         break;
+      default:
+        if (query.endsWith("_cube")) {
+          // Same as the OLAP queries, over the facts extracted from the graph (i.e: "1_1_cube").
+          FactTable table = FactTable.extract(graph);
+          CubeQueries.run(table, query.substring(0, query.length() - "_cube".length()));
+        } else if (query.startsWith("verify_")) {
+          // Compares the results of the fact table with the ones of the graph (i.e: "verify_1_1").
+          CubeQueries.verify(graph, query.substring("verify_".length()));
+        }
+        break;
     }
     long end = System.currentTimeMillis();
     System.out.println("Total time: " + (end - start) + " ms");
 
     graph.close();
+    if (Operations.modifiedGraph()) {
+      // A rolled up graph can not be queried or appended to again, so the next run reloads it.
+      JanusGraphCleanup.clear(graph);
+      clearStoredData(path);
+      System.out.println("The query modified the graph, cleared it to reload on the next run");
+    }
+  }
+
+  /**
+   * Deletes the checkpoint and everything built from the graph stored next to the csv files.
+   */
+  private static void clearStoredData(String path) throws IOException {
+    Checkpoint.clear(Paths.get(path));
+    Dictionary.clear(Paths.get(path));
+    MaterializedViews.clear(Paths.get(path));
+    PhoneGraph.clear(Paths.get(path));
   }
 
   public static String toString(Edge edge) {
     StringBuilder strBuilder = new StringBuilder();
-    strBuilder.append(toString(edge.outVertex(), "value", "duration"));
+    strBuilder.append(toString(edge.outVertex(), "value", AggregateState.SUM));
     strBuilder.append("- " + edge.label() + " -> ");
-    strBuilder.append(toString(edge.inVertex(), "value", "duration"));
+    strBuilder.append(toString(edge.inVertex(), "value", AggregateState.SUM));
     return strBuilder.toString();
   }
 
@@ -200,7 +298,21 @@ public class App {
     addPropertyKey("type", String.class, Cardinality.SINGLE, true);
 
     addPropertyKey("duration", Double.class, Cardinality.LIST, false);
-    addPropertyKey("visited", Boolean.class, Cardinality.SINGLE, true);
+    // Partial aggregation of the durations of a call, see AggregateState.
+    addPropertyKey(AggregateState.COUNT, Long.class, Cardinality.SINGLE, false);
+    addPropertyKey(AggregateState.SUM, Double.class, Cardinality.SINGLE, false);
+    addPropertyKey(AggregateState.MIN, Double.class, Cardinality.SINGLE, false);
+    addPropertyKey(AggregateState.MAX, Double.class, Cardinality.SINGLE, false);
+    addPropertyKey(AggregateState.SUM_OF_SQUARES, Double.class, Cardinality.SINGLE, false);
+    addPropertyKey(AggregateState.SKETCH, byte[].class, Cardinality.SINGLE, false);
+
+    // Vertex ids of the ancestors of the calls, see HierarchyKeys.
+    for (String key : HierarchyKeys.LOCATION_KEYS) {
+      addPropertyKey(key, Long.class, Cardinality.SET, true);
+    }
+    for (String key : HierarchyKeys.TIME_KEYS) {
+      addPropertyKey(key, Long.class, Cardinality.SINGLE, true);
+    }
 
     addVertexLabel("phone");
     addVertexLabel("user");
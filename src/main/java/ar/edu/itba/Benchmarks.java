@@ -0,0 +1,371 @@
+package ar.edu.itba;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Micro benchmarks that do not need a graph. They are run from the command line as any other
+ * query, i.e: "path bench_tokenizer".
+ */
+public class Benchmarks {
+
+  private static final int RUNS = 5;
+
+  public static void run(String path, String benchmark) throws Exception {
+    switch (benchmark) {
+      case "bench_tokenizer":
+        tokenizer(Paths.get(path, "call.csv"));
+        break;
+      case "bench_facts":
+        facts(Integer.getInteger("bench.facts", 5000000));
+        break;
+      case "bench_floyd_warshall":
+        for (String phones : System.getProperty("bench.phones", "1000,5000,10000").split(",")) {
+          floydWarshall(Integer.parseInt(phones.trim()),
+              Integer.getInteger("bench.mapSeconds", 60));
+        }
+        break;
+      default:
+        throw new IllegalArgumentException("Unknown benchmark: " + benchmark);
+    }
+  }
+
+  /**
+   * Compares parsing the calls file splitting strings, as the loader used to, with the
+   * memory-mapped {@link CsvReader}. The first run of each is a warm up.
+   */
+  private static void tokenizer(Path file) throws IOException {
+    System.out.println(String.format("Parsing %s (%d bytes)", file, Files.size(file)));
+    for (int run = 0; run < RUNS; run++) {
+      long allocated = allocatedBytes();
+      long start = System.nanoTime();
+      long checksum = parseWithSplit(file);
+      long splitNanos = System.nanoTime() - start;
+      long splitAllocated = allocatedBytes() - allocated;
+
+      allocated = allocatedBytes();
+      start = System.nanoTime();
+      long tokenizerChecksum = parseWithCsvReader(file);
+      long tokenizerNanos = System.nanoTime() - start;
+      long tokenizerAllocated = allocatedBytes() - allocated;
+
+      if (checksum != tokenizerChecksum) {
+        throw new IllegalStateException("Parsers disagree on the contents of " + file);
+      }
+      System.out.println(String.format(
+          "Run %d%s: split %d ms (%d MB allocated), tokenizer %d ms (%d MB allocated)", run,
+          run == 0 ? " (warm up)" : "", splitNanos / 1000000, splitAllocated >> 20,
+          tokenizerNanos / 1000000, tokenizerAllocated >> 20));
+    }
+  }
+
+  private static long parseWithSplit(Path file) throws IOException {
+    long checksum = 0;
+    try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        if (line.trim().isEmpty()) {
+          continue;
+        }
+        String[] vars = line.replace("\uFEFF", "").split(",");
+        checksum += Long.parseLong(vars[0]) + Long.parseLong(vars[1]) + Long.parseLong(vars[2])
+            + Long.parseLong(vars[3]) + Integer.parseInt(vars[4]);
+      }
+    }
+    return checksum;
+  }
+
+  private static long parseWithCsvReader(Path file) throws IOException {
+    long checksum = 0;
+    try (CsvReader reader = new CsvReader(file)) {
+      while (reader.next()) {
+        checksum += reader.longField(0) + reader.longField(1) + reader.longField(2)
+            + reader.longField(3) + reader.intField(4);
+      }
+    }
+    return checksum;
+  }
+
+  /**
+   * Compares the garbage collection time of holding the facts as call objects with boxed durations
+   * in sets by caller, as the queries held sets of call vertices, with the columns of the
+   * {@link FactTable} as heap arrays and as {@link DirectColumn}s. Each run loads the facts and
+   * aggregates them by caller while allocating short lived garbage, so that the collector has to go
+   * through whatever is live. The amount of facts is set with -Dbench.facts.
+   */
+  private static void facts(int size) {
+    System.out.println(String.format("Aggregating %d facts", size));
+    for (int run = 0; run < RUNS; run++) {
+      String warmUp = run == 0 ? " (warm up)" : "";
+
+      long gcMillis = gcMillis();
+      long start = System.nanoTime();
+      Map<Integer, Set<HeapCall>> calls = new HashMap<>();
+      Random random = new Random(run);
+      for (int i = 0; i < size; i++) {
+        double duration = random.nextInt(3600);
+        int caller = random.nextInt(1000);
+        calls.computeIfAbsent(caller, x -> new HashSet<>()).add(new HeapCall(i, caller, duration));
+      }
+      double[] callSums = new double[1000];
+      long[] callCounts = new long[1000];
+      for (Set<HeapCall> group : calls.values()) {
+        for (HeapCall call : group) {
+          for (Double duration : call.durations) {
+            callSums[call.caller] += duration + garbage(call.caller);
+            callCounts[call.caller]++;
+          }
+        }
+      }
+      long millis = (System.nanoTime() - start) / 1000000;
+      gcMillis = gcMillis() - gcMillis;
+      long liveHeap = liveHeapBytes();
+      System.out.println(String.format(
+          "Run %d%s: call objects in sets of %d facts %d ms, %d ms in GC, %d MB of live heap", run,
+          warmUp, calls.values().stream().mapToInt(Set::size).sum(), millis, gcMillis,
+          liveHeap >> 20));
+      calls = null;
+
+      gcMillis = gcMillis();
+      start = System.nanoTime();
+      HeapColumns heap = new HeapColumns();
+      random = new Random(run);
+      for (int i = 0; i < size; i++) {
+        heap.ensureCapacity(i + 1);
+        double duration = random.nextInt(3600);
+        heap.callers[i] = random.nextInt(1000);
+        heap.counts[i] = 1;
+        heap.sums[i] = duration;
+        heap.mins[i] = duration;
+        heap.maxs[i] = duration;
+        heap.sumsOfSquares[i] = duration * duration;
+      }
+      double[] heapSums = new double[1000];
+      long[] heapCounts = new long[1000];
+      for (int i = 0; i < size; i++) {
+        int caller = heap.callers[i];
+        heapSums[caller] += heap.sums[i] + garbage(caller);
+        heapCounts[caller] += heap.counts[i];
+      }
+      millis = (System.nanoTime() - start) / 1000000;
+      gcMillis = gcMillis() - gcMillis;
+      liveHeap = liveHeapBytes();
+      System.out.println(String.format(
+          "Run %d%s: heap columns of %d facts %d ms, %d ms in GC, %d MB of live heap", run,
+          warmUp, heap.capacity(), millis, gcMillis, liveHeap >> 20));
+      heap = null;
+
+      gcMillis = gcMillis();
+      start = System.nanoTime();
+      DirectColumn directCallers = DirectColumn.ofInts(1024);
+      DirectColumn directCounts = DirectColumn.ofLongs(1024);
+      DirectColumn directDurations = DirectColumn.ofDoubles(1024);
+      DirectColumn directMins = DirectColumn.ofDoubles(1024);
+      DirectColumn directMaxs = DirectColumn.ofDoubles(1024);
+      DirectColumn directSumsOfSquares = DirectColumn.ofDoubles(1024);
+      random = new Random(run);
+      for (int i = 0; i < size; i++) {
+        directCallers.ensureCapacity(i + 1);
+        directCounts.ensureCapacity(i + 1);
+        directDurations.ensureCapacity(i + 1);
+        directMins.ensureCapacity(i + 1);
+        directMaxs.ensureCapacity(i + 1);
+        directSumsOfSquares.ensureCapacity(i + 1);
+        double duration = random.nextInt(3600);
+        directCallers.putInt(i, random.nextInt(1000));
+        directCounts.putLong(i, 1);
+        directDurations.putDouble(i, duration);
+        directMins.putDouble(i, duration);
+        directMaxs.putDouble(i, duration);
+        directSumsOfSquares.putDouble(i, duration * duration);
+      }
+      double[] directSums = new double[1000];
+      long[] directGroupCounts = new long[1000];
+      for (int i = 0; i < size; i++) {
+        int caller = directCallers.getInt(i);
+        directSums[caller] += directDurations.getDouble(i) + garbage(caller);
+        directGroupCounts[caller] += directCounts.getLong(i);
+      }
+      millis = (System.nanoTime() - start) / 1000000;
+      gcMillis = gcMillis() - gcMillis;
+      liveHeap = liveHeapBytes();
+      System.out.println(String.format(
+          "Run %d%s: direct columns of %d facts %d ms, %d ms in GC, %d MB of live heap", run,
+          warmUp, directCallers.capacity(), millis, gcMillis, liveHeap >> 20));
+
+      // Sums of whole seconds are exact, so they do not depend on the order of the facts.
+      if (!Arrays.equals(callSums, heapSums) || !Arrays.equals(callCounts, heapCounts)
+          || !Arrays.equals(heapSums, directSums)
+          || !Arrays.equals(heapCounts, directGroupCounts)) {
+        throw new IllegalStateException("Aggregations disagree");
+      }
+    }
+  }
+
+  /**
+   * Compares Floyd-Warshall over maps of boxed distances, as the distance queries used to run it,
+   * with {@link BlockedFloydWarshall}, over a random graph of phones with two calls each. The map
+   * version takes O(V^3) lookups, so it stops after the given amount of seconds and its total time
+   * is estimated from the pivots it went through, since each pivot takes about the same.
+   */
+  private static void floydWarshall(int size, int mapSeconds) {
+    Random random = new Random(size);
+    Map<Integer, Map<Integer, Integer>> distancesMap = new HashMap<>();
+    BlockedFloydWarshall matrix = new BlockedFloydWarshall(size);
+    for (int phone = 0; phone < size; phone++) {
+      distancesMap.computeIfAbsent(phone, x -> new HashMap<>()).put(phone, 0);
+    }
+    for (int call = 0; call < 2 * size; call++) {
+      int phone1 = random.nextInt(size);
+      int phone2 = random.nextInt(size);
+      if (phone1 != phone2) {
+        distancesMap.get(phone1).put(phone2, 1);
+        distancesMap.get(phone2).put(phone1, 1);
+        matrix.setDistance(phone1, phone2, 1);
+        matrix.setDistance(phone2, phone1, 1);
+      }
+    }
+
+    long start = System.nanoTime();
+    int pivots = 0;
+    while (pivots < size && System.nanoTime() - start < mapSeconds * 1000000000L) {
+      int k = pivots++;
+      for (int i = 0; i < size; i++) {
+        for (int j = 0; j < size; j++) {
+          int distIJ = distancesMap.get(i).getOrDefault(j, Integer.MAX_VALUE);
+          int distIK = distancesMap.get(i).getOrDefault(k, Integer.MAX_VALUE);
+          int distKJ = distancesMap.get(k).getOrDefault(j, Integer.MAX_VALUE);
+          if (distIK < Integer.MAX_VALUE && distKJ < Integer.MAX_VALUE
+              && distIJ > distIK + distKJ) {
+            distancesMap.get(i).put(j, distIK + distKJ);
+          }
+        }
+      }
+    }
+    long mapMillis = (System.nanoTime() - start) / 1000000 * size / pivots;
+
+    start = System.nanoTime();
+    matrix.run(Runtime.getRuntime().availableProcessors());
+    long blockedMillis = (System.nanoTime() - start) / 1000000;
+
+    if (pivots == size) {
+      for (int i = 0; i < size; i++) {
+        for (int j = 0; j < size; j++) {
+          int distance = distancesMap.get(i).getOrDefault(j, BlockedFloydWarshall.UNREACHABLE);
+          if (distance != matrix.distance(i, j)) {
+            throw new IllegalStateException("Floyd-Warshall versions disagree");
+          }
+        }
+      }
+    }
+    System.out.println(String.format("%d phones: maps %d ms%s, blocked %d ms, %.1fx speedup",
+        size, mapMillis, pivots == size ? "" : " (estimated from " + pivots + " pivots)",
+        blockedMillis, (double) mapMillis / Math.max(blockedMillis, 1)));
+  }
+
+  /**
+   * Allocates a short lived object, as the rest of a query would, returning 0.
+   */
+  private static double garbage(int value) {
+    return String.valueOf(value).isEmpty() ? 1 : 0;
+  }
+
+  private static long gcMillis() {
+    long millis = 0;
+    for (GarbageCollectorMXBean bean : ManagementFactory.getGarbageCollectorMXBeans()) {
+      millis += Math.max(bean.getCollectionTime(), 0);
+    }
+    return millis;
+  }
+
+  /**
+   * Heap used after a full collection, outside of the measured time.
+   */
+  private static long liveHeapBytes() {
+    System.gc();
+    return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+  }
+
+  /**
+   * A call as the queries held it, with the array of durations of the calls merged into it.
+   */
+  private static class HeapCall {
+
+    private final Integer id;
+    private final Integer caller;
+    private final List<Double> durations = new ArrayList<>();
+
+    HeapCall(int id, int caller, double duration) {
+      this.id = id;
+      this.caller = caller;
+      durations.add(duration);
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      return other instanceof HeapCall && id.equals(((HeapCall) other).id);
+    }
+
+    @Override
+    public int hashCode() {
+      return id.hashCode();
+    }
+  }
+
+  /**
+   * Columns of the fact table as it kept them before {@link DirectColumn}, in heap arrays.
+   */
+  private static class HeapColumns {
+
+    private int[] callers = new int[1024];
+    private long[] counts = new long[1024];
+    private double[] sums = new double[1024];
+    private double[] mins = new double[1024];
+    private double[] maxs = new double[1024];
+    private double[] sumsOfSquares = new double[1024];
+
+    int capacity() {
+      return callers.length;
+    }
+
+    void ensureCapacity(int capacity) {
+      if (capacity <= callers.length) {
+        return;
+      }
+      capacity = Math.max(capacity, callers.length * 2);
+      callers = Arrays.copyOf(callers, capacity);
+      counts = Arrays.copyOf(counts, capacity);
+      sums = Arrays.copyOf(sums, capacity);
+      mins = Arrays.copyOf(mins, capacity);
+      maxs = Arrays.copyOf(maxs, capacity);
+      sumsOfSquares = Arrays.copyOf(sumsOfSquares, capacity);
+    }
+  }
+
+  /**
+   * Bytes allocated by the current thread, or 0 if the JVM does not report it.
+   */
+  private static long allocatedBytes() {
+    ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+    if (bean instanceof com.sun.management.ThreadMXBean) {
+      return ((com.sun.management.ThreadMXBean) bean)
+          .getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+    return 0;
+  }
+}
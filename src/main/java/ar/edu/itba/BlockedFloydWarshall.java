@@ -0,0 +1,143 @@
+package ar.edu.itba;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Floyd-Warshall over a flat matrix of distances, split in square tiles so that each update works
+ * on three tiles that fit in the cache. For each diagonal tile, the tile itself is updated first,
+ * then the rest of its row and column of tiles, and then every other tile. The tiles of the last
+ * two phases do not depend on each other, so they are updated in parallel on a fork-join pool.
+ *
+ * Distances are ints, so edges may have any weight, as long as paths do not reach
+ * {@link #UNREACHABLE}.
+ */
+public class BlockedFloydWarshall {
+
+  // Half of the maximum, so that adding two distances does not overflow.
+  public static final int UNREACHABLE = Integer.MAX_VALUE / 2;
+
+  // Tiles of 64 x 64 ints, 16 KB each.
+  private static final int TILE_SIZE = 64;
+
+  private final int size;
+  private final int tiles;
+  // Distance from i to j at i * size + j.
+  private final int[] distances;
+
+  /**
+   * Matrix with every vertex at distance 0 of itself and unreachable from the rest.
+   */
+  public BlockedFloydWarshall(int size) {
+    if ((long) size * size > Integer.MAX_VALUE) {
+      throw new IllegalArgumentException("Too many vertices for a dense matrix: " + size);
+    }
+    this.size = size;
+    this.tiles = (size + TILE_SIZE - 1) / TILE_SIZE;
+    this.distances = new int[size * size];
+    Arrays.fill(distances, UNREACHABLE);
+    for (int i = 0; i < size; i++) {
+      distances[i * size + i] = 0;
+    }
+  }
+
+  /**
+   * Matrix with the phones of the graph at distance 1 of their neighbors.
+   */
+  public static BlockedFloydWarshall of(PhoneGraph phones) {
+    BlockedFloydWarshall matrix = new BlockedFloydWarshall(phones.size());
+    int[] offsets = phones.offsets();
+    int[] neighbors = phones.neighbors();
+    for (int phone = 0; phone < phones.size(); phone++) {
+      for (int i = offsets[phone]; i < offsets[phone + 1]; i++) {
+        matrix.setDistance(phone, neighbors[i], 1);
+      }
+    }
+    return matrix;
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public void setDistance(int from, int to, int distance) {
+    distances[from * size + to] = distance;
+  }
+
+  /**
+   * Distance between the vertices, or {@link #UNREACHABLE} if there is no path between them.
+   */
+  public int distance(int from, int to) {
+    return distances[from * size + to];
+  }
+
+  /**
+   * Replaces the distances by the ones of the shortest paths, with the given amount of threads.
+   */
+  public void run(int workers) {
+    ForkJoinPool pool = new ForkJoinPool(workers);
+    try {
+      for (int k = 0; k < tiles; k++) {
+        update(k, k, k);
+
+        List<ForkJoinTask<?>> lines = new ArrayList<>();
+        for (int t = 0; t < tiles; t++) {
+          if (t != k) {
+            lines.add(task(k, t, k));
+            lines.add(task(t, k, k));
+          }
+        }
+        invokeAll(pool, lines);
+
+        List<ForkJoinTask<?>> rest = new ArrayList<>();
+        for (int i = 0; i < tiles; i++) {
+          for (int j = 0; j < tiles; j++) {
+            if (i != k && j != k) {
+              rest.add(task(i, j, k));
+            }
+          }
+        }
+        invokeAll(pool, rest);
+      }
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  private ForkJoinTask<?> task(int i, int j, int k) {
+    return ForkJoinTask.adapt(() -> update(i, j, k));
+  }
+
+  private static void invokeAll(ForkJoinPool pool, List<ForkJoinTask<?>> tasks) {
+    pool.invoke(ForkJoinTask.adapt(() -> ForkJoinTask.invokeAll(tasks)));
+  }
+
+  /**
+   * Relaxes the paths of tile (i, j) through the vertices of tile k.
+   */
+  private void update(int i, int j, int k) {
+    int rowEnd = Math.min(size, (i + 1) * TILE_SIZE);
+    int columnStart = j * TILE_SIZE;
+    int columnEnd = Math.min(size, (j + 1) * TILE_SIZE);
+    int pivotEnd = Math.min(size, (k + 1) * TILE_SIZE);
+    for (int pivot = k * TILE_SIZE; pivot < pivotEnd; pivot++) {
+      int pivotRow = pivot * size;
+      for (int row = i * TILE_SIZE; row < rowEnd; row++) {
+        int rowStart = row * size;
+        int toPivot = distances[rowStart + pivot];
+        if (toPivot == UNREACHABLE) {
+          continue;
+        }
+        for (int column = columnStart; column < columnEnd; column++) {
+          int through = toPivot + distances[pivotRow + column];
+          if (through < distances[rowStart + column]) {
+            distances[rowStart + column] = through;
+          }
+        }
+      }
+    }
+  }
+}
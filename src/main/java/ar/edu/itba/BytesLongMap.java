@@ -0,0 +1,103 @@
+package ar.edu.itba;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Open addressing hash map from byte strings to long. Keys are looked up from a
+ * {@link KeyBuilder}, and only copied when they are inserted.
+ */
+public class BytesLongMap {
+
+  private byte[][] keys;
+  private long[] values;
+  private int size;
+
+  public BytesLongMap() {
+    keys = new byte[16][];
+    values = new long[keys.length];
+  }
+
+  /**
+   * Returns the value of the key, or defaultValue if the key is not in the map.
+   */
+  public long get(KeyBuilder key, long defaultValue) {
+    int slot = find(key);
+    return keys[slot] != null ? values[slot] : defaultValue;
+  }
+
+  public void put(KeyBuilder key, long value) {
+    int slot = find(key);
+    if (keys[slot] == null) {
+      keys[slot] = key.toBytes();
+      size++;
+    }
+    values[slot] = value;
+    if (size * 2 > keys.length) {
+      rehash(keys.length * 2);
+    }
+  }
+
+  public void put(String key, long value) {
+    KeyBuilder builder = new KeyBuilder();
+    for (byte b : key.getBytes(StandardCharsets.UTF_8)) {
+      builder.append(b);
+    }
+    put(builder, value);
+  }
+
+  public int size() {
+    return size;
+  }
+
+  private int find(KeyBuilder key) {
+    int hash = 1;
+    for (int i = 0; i < key.length(); i++) {
+      hash = 31 * hash + key.byteAt(i);
+    }
+    int mask = keys.length - 1;
+    int slot = LongLongMap.hash(hash) & mask;
+    while (keys[slot] != null && !matches(keys[slot], key)) {
+      slot = (slot + 1) & mask;
+    }
+    return slot;
+  }
+
+  private static boolean matches(byte[] bytes, KeyBuilder key) {
+    if (bytes.length != key.length()) {
+      return false;
+    }
+    for (int i = 0; i < bytes.length; i++) {
+      if (bytes[i] != key.byteAt(i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private void rehash(int capacity) {
+    byte[][] oldKeys = keys;
+    long[] oldValues = values;
+    keys = new byte[capacity][];
+    values = new long[capacity];
+    for (int i = 0; i < oldKeys.length; i++) {
+      if (oldKeys[i] != null) {
+        int slot = slotOf(oldKeys[i]);
+        keys[slot] = oldKeys[i];
+        values[slot] = oldValues[i];
+      }
+    }
+  }
+
+  private int slotOf(byte[] bytes) {
+    int hash = 1;
+    for (byte b : bytes) {
+      hash = 31 * hash + b;
+    }
+    int mask = keys.length - 1;
+    int slot = LongLongMap.hash(hash) & mask;
+    while (keys[slot] != null) {
+      slot = (slot + 1) & mask;
+    }
+    return slot;
+  }
+}
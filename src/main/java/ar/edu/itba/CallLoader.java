@@ -0,0 +1,310 @@
+package ar.edu.itba;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.janusgraph.core.JanusGraph;
+import org.janusgraph.core.JanusGraphException;
+import org.janusgraph.core.JanusGraphTransaction;
+import org.janusgraph.core.JanusGraphVertex;
+
+/**
+ * Loads the call facts using several worker threads. Rows are partitioned by call id, so every row
+ * of a call is handled by the same worker and all its "integratedBy" edges end up on the same call
+ * vertex. Each worker commits its own transaction per batch of rows, retrying the batch if the
+ * commit fails, and records it in the {@link Checkpoint}, so that an interrupted load resumes after
+ * the batches already committed.
+ * 
+ * Parsing can start while the dimensions are still being loaded: rows are queued, up to a bound,
+ * and workers only start adding them once the dimensions are ready.
+ */
+public class CallLoader {
+
+  private static final int BATCH_SIZE = 1000;
+  // Call id, date time id, caller id, member id and duration.
+  private static final int ROW_LENGTH = 5;
+  private static final int QUEUE_SIZE = 16;
+  private static final int MAX_RETRIES = 5;
+
+  private final JanusGraph graph;
+  private final LongLongMap phoneIdsMap;
+  private final LongLongMap dateTimesIdsMap;
+  private final int workers;
+  private HierarchyKeys hierarchyKeys;
+
+  /**
+   * @param phoneIdsMap Phone ids in the csv files to phone vertex ids.
+   * @param dateTimesIdsMap Date time ids in the csv files to timestamp vertex ids.
+   */
+  public CallLoader(JanusGraph graph, LongLongMap phoneIdsMap, LongLongMap dateTimesIdsMap,
+      int workers) {
+    if (workers < 1) {
+      throw new IllegalArgumentException("Expecting at least one worker.");
+    }
+    this.graph = graph;
+    this.phoneIdsMap = phoneIdsMap;
+    this.dateTimesIdsMap = dateTimesIdsMap;
+    this.workers = workers;
+  }
+
+  /**
+   * Stores the keys of the ancestors of their members and timestamp on the new calls.
+   */
+  public void setHierarchyKeys(HierarchyKeys hierarchyKeys) {
+    this.hierarchyKeys = hierarchyKeys;
+  }
+
+  /**
+   * Loads the calls of the file from the offset up to which the checkpoint says it was ingested,
+   * and returns the offset up to which it was read.
+   * 
+   * If a previous load of the file did not finish, it is resumed with as many workers as it had,
+   * skipping the rows that it committed.
+   * 
+   * @param checkpoint Vertex ids of the calls already in the graph, by call id. Rows of those calls
+   *        are added to the existing vertices, and each committed batch is logged to it.
+   * @param dimensions Loads that fill the phone and date time id maps, which have to finish before
+   *        calls are added.
+   */
+  public long load(Path file, Checkpoint checkpoint, Future<?>... dimensions)
+      throws IOException, InterruptedException {
+    String fileName = file.getFileName().toString();
+    long[] progress = checkpoint.callProgress();
+    int partitions = progress == null ? workers : progress.length;
+    if (partitions != workers) {
+      System.out.println(String.format("Resuming calls load with its %d workers", partitions));
+    }
+    checkpoint.startCallLog(fileName, partitions);
+
+    ExecutorService executor = Executors.newFixedThreadPool(partitions);
+    List<Worker> workersList = new ArrayList<>();
+    List<Future<?>> futures = new ArrayList<>();
+    for (int i = 0; i < partitions; i++) {
+      Worker worker = new Worker(i, checkpoint, dimensions);
+      workersList.add(worker);
+      futures.add(executor.submit(worker));
+    }
+
+    long offset = checkpoint.offset(fileName);
+    if (progress != null) {
+      offset = Math.max(offset, Arrays.stream(progress).min().getAsLong());
+    }
+    try (CsvReader reader = new CsvReader(file, offset)) {
+      // Rows of each worker are packed in a flat array, ROW_LENGTH values per row.
+      long[][] batches = new long[partitions][BATCH_SIZE * ROW_LENGTH];
+      int[] batchSizes = new int[partitions];
+
+      for (int i = 0; reader.next(); i++) {
+        long callId = reader.longField(0);
+        int partition = (int) Math.floorMod(callId, (long) partitions);
+        if (progress != null && reader.offset() <= progress[partition]) {
+          // Already committed by the load being resumed.
+          continue;
+        }
+        long[] batch = batches[partition];
+        int position = batchSizes[partition];
+        batch[position] = callId;
+        batch[position + 1] = reader.longField(1); // Date time id
+        batch[position + 2] = reader.longField(2); // Caller id
+        batch[position + 3] = reader.longField(3); // Member id
+        batch[position + 4] = reader.intField(4); // Duration
+        batchSizes[partition] += ROW_LENGTH;
+
+        if (batchSizes[partition] == batch.length) {
+          dispatch(workersList.get(partition), futures.get(partition),
+              new Batch(batch, reader.offset()));
+          batches[partition] = new long[BATCH_SIZE * ROW_LENGTH];
+          batchSizes[partition] = 0;
+        }
+
+        if (i % 1000 == 0) {
+          System.out.println(String.format("Call progress: %.2f %%", reader.progress()));
+        }
+      }
+
+      // Flush the remaining rows and signal the end of the file with an empty batch.
+      for (int i = 0; i < partitions; i++) {
+        if (batchSizes[i] > 0) {
+          dispatch(workersList.get(i), futures.get(i),
+              new Batch(Arrays.copyOf(batches[i], batchSizes[i]), reader.offset()));
+        }
+        dispatch(workersList.get(i), futures.get(i), new Batch(new long[0], reader.offset()));
+      }
+
+      for (Future<?> future : futures) {
+        future.get();
+      }
+      for (Worker worker : workersList) {
+        worker.newCallIdsMap.forEach(checkpoint.callIdsMap()::put);
+      }
+      return reader.offset();
+    } catch (ExecutionException e) {
+      throw new IllegalStateException("Call worker failed", e.getCause());
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  /**
+   * Hands a batch to a worker, failing if the worker died instead of blocking forever on its full
+   * queue.
+   */
+  private void dispatch(Worker worker, Future<?> future, Batch batch)
+      throws InterruptedException, ExecutionException {
+    while (!worker.queue.offer(batch, 1, TimeUnit.SECONDS)) {
+      if (future.isDone()) {
+        future.get();
+        throw new IllegalStateException("Call worker " + worker.index + " stopped unexpectedly");
+      }
+    }
+  }
+
+  /**
+   * Rows of a partition, and the offset of the file up to which the rows of the partition are
+   * in this batch or the previous ones.
+   */
+  private static class Batch {
+
+    private final long[] rows;
+    private final long offset;
+
+    Batch(long[] rows, long offset) {
+      this.rows = rows;
+      this.offset = offset;
+    }
+  }
+
+  private class Worker implements Runnable {
+
+    private final int index;
+    private final BlockingQueue<Batch> queue = new ArrayBlockingQueue<>(QUEUE_SIZE);
+
+    private final Checkpoint checkpoint;
+    // Vertex ids of the calls committed before the load started, shared by all workers.
+    private final LongLongMap callIdsMap;
+    // Vertex ids of the calls committed by this worker.
+    private final LongLongMap newCallIdsMap = new LongLongMap();
+    private final Future<?>[] dimensions;
+
+    Worker(int index, Checkpoint checkpoint, Future<?>[] dimensions) {
+      this.index = index;
+      this.checkpoint = checkpoint;
+      this.callIdsMap = checkpoint.callIdsMap();
+      this.dimensions = dimensions;
+    }
+
+    @Override
+    public void run() {
+      long start;
+      long rows = 0;
+      try {
+        for (Future<?> dimension : dimensions) {
+          dimension.get();
+        }
+        start = System.currentTimeMillis();
+        Batch batch;
+        while ((batch = queue.take()).rows.length > 0) {
+          commit(batch);
+          rows += batch.rows.length / ROW_LENGTH;
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return;
+      } catch (ExecutionException e) {
+        throw new IllegalStateException("Dimensions failed to load", e.getCause());
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+      long elapsed = Math.max(System.currentTimeMillis() - start, 1);
+      System.out.println(String.format("Call worker %d: %d rows, %.2f rows/s", index, rows,
+          rows * 1000 / (double) elapsed));
+    }
+
+    /**
+     * Adds the batch in a new transaction and logs it once committed. If the commit fails, the
+     * whole batch is added again in a fresh transaction.
+     */
+    private void commit(Batch batch) throws InterruptedException, IOException {
+      long[] rows = batch.rows;
+      for (int attempt = 1;; attempt++) {
+        JanusGraphTransaction tx = graph.newTransaction();
+        Map<Long, JanusGraphVertex> newCalls = new HashMap<>();
+        try {
+          for (int i = 0; i < rows.length; i += ROW_LENGTH) {
+            newCall(tx, newCalls, rows[i], vertexId(phoneIdsMap, rows[i + 2]),
+                vertexId(phoneIdsMap, rows[i + 3]), vertexId(dateTimesIdsMap, rows[i + 1]),
+                (int) rows[i + 4]);
+          }
+          tx.commit();
+          LongLongMap committed = new LongLongMap(newCalls.size());
+          newCalls.forEach((callId, vertex) -> committed.put(callId, vertex.longId()));
+          checkpoint.logCalls(index, batch.offset, committed);
+          committed.forEach(newCallIdsMap::put);
+          return;
+        } catch (JanusGraphException e) {
+          if (attempt == MAX_RETRIES) {
+            throw e;
+          }
+          System.out.println(String.format("Call worker %d: commit failed, retrying (%d/%d)",
+              index, attempt, MAX_RETRIES));
+          Thread.sleep(100L << attempt);
+        } finally {
+          if (tx.isOpen()) {
+            tx.rollback();
+          }
+        }
+      }
+    }
+
+    private void newCall(JanusGraphTransaction tx, Map<Long, JanusGraphVertex> newCalls,
+        long callId, long callerVertexId, long memberVertexId, long timeVertexId,
+        int duration) {
+      JanusGraphVertex vertex = newCalls.get(callId);
+      if (vertex == null) {
+        long vertexId = newCallIdsMap.get(callId, callIdsMap.get(callId, -1));
+        if (vertexId != -1) {
+          vertex = tx.getVertex(vertexId);
+        }
+      }
+      if (vertex == null) {
+        vertex = tx.addVertex("call");
+        vertex.property("type", "call");
+        AggregateState.of(duration).write(vertex);
+
+        vertex.addEdge("calledBy", tx.getVertex(callerVertexId));
+        vertex.addEdge("atTime", tx.getVertex(timeVertexId));
+        if (hierarchyKeys != null) {
+          hierarchyKeys.addTimeKeys(vertex, timeVertexId);
+          hierarchyKeys.addMemberKeys(vertex, callerVertexId);
+        }
+
+        newCalls.put(callId, vertex);
+      }
+
+      vertex.addEdge("integratedBy", tx.getVertex(memberVertexId));
+      if (hierarchyKeys != null) {
+        hierarchyKeys.addMemberKeys(vertex, memberVertexId);
+      }
+    }
+  }
+
+  private static long vertexId(LongLongMap idsMap, long id) {
+    long vertexId = idsMap.get(id, -1);
+    if (vertexId == -1) {
+      throw new IllegalArgumentException("Unknown id in call file: " + id);
+    }
+    return vertexId;
+  }
+}
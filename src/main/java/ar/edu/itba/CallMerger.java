@@ -0,0 +1,163 @@
+package ar.edu.itba;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+import org.apache.tinkerpop.gremlin.structure.Direction;
+import org.apache.tinkerpop.gremlin.structure.Edge;
+import org.apache.tinkerpop.gremlin.structure.Vertex;
+import org.janusgraph.core.JanusGraph;
+
+/**
+ * Merges the calls that have the same time, the same caller and the same participants (including
+ * their cardinality) into a single call with the durations of all of them, as
+ * {@link Operations#minimize()} describes.
+ *
+ * Calls are read in a single scan, computing for each one a signature with the values of the
+ * members it points to, so that equal calls are found by hashing instead of comparing each call
+ * with the others at the same time. Changes are applied afterwards, looking up the calls in
+ * batches. Like the rest of {@link Operations}, it works on the current transaction of the graph,
+ * which is committed after each batch of merged signatures so that it does not grow with the graph.
+ * The changes made before on that transaction are committed with the first batch.
+ */
+public class CallMerger {
+
+  private static final int BATCH_SIZE = 1000;
+
+  private final JanusGraph graph;
+  private final Predicate<Vertex> filter;
+
+  // Codes given to the edge labels and member values seen, to build compact signatures.
+  private final Map<String, Integer> labelCodes = new HashMap<>();
+  private final Map<String, Integer> valueCodes = new HashMap<>();
+  // Member vertex id to the code of its value.
+  private final Map<Object, Integer> memberCodes = new HashMap<>();
+
+  public CallMerger(JanusGraph graph) {
+    this(graph, call -> true);
+  }
+
+  /**
+   * Only merges the calls that pass the filter, leaving the rest untouched.
+   */
+  public CallMerger(JanusGraph graph, Predicate<Vertex> filter) {
+    this.graph = graph;
+    this.filter = filter;
+  }
+
+  /**
+   * Merges the equal calls. The first call of each group is kept, with the aggregate states of the
+   * others merged into its own, and the others are removed. Returns the amount of calls removed.
+   */
+  public int merge() {
+    // Signature to the first call with it and the calls to merge into it, in scan order.
+    Map<Signature, Group> groups = new LinkedHashMap<>();
+    graph.traversal().V().has("type", "call").toStream().filter(filter).forEach(call -> {
+      Group group = groups.computeIfAbsent(signature(call), x -> new Group(call.id()));
+      if (!group.callId.equals(call.id())) {
+        group.mergedIds.add(call.id());
+        group.state.merge(AggregateState.of(call));
+      }
+    });
+
+    List<Group> toMerge = new ArrayList<>();
+    int removed = 0;
+    for (Group group : groups.values()) {
+      if (group.mergedIds.isEmpty()) {
+        continue;
+      }
+      toMerge.add(group);
+      removed += group.mergedIds.size();
+      if (toMerge.size() == BATCH_SIZE) {
+        apply(toMerge);
+        toMerge.clear();
+      }
+    }
+    apply(toMerge);
+    System.out.println(String.format("Merged %d calls into %d", removed, groups.size()));
+    return removed;
+  }
+
+  private void apply(List<Group> batch) {
+    if (batch.isEmpty()) {
+      return;
+    }
+    List<Object> keptIds = new ArrayList<>();
+    List<Object> mergedIds = new ArrayList<>();
+    for (Group group : batch) {
+      keptIds.add(group.callId);
+      mergedIds.addAll(group.mergedIds);
+    }
+    Map<Object, Vertex> kept = new HashMap<>();
+    graph.traversal().V(keptIds.toArray()).toStream().forEach(call -> kept.put(call.id(), call));
+    for (Group group : batch) {
+      Vertex call = kept.get(group.callId);
+      AggregateState.of(call).merge(group.state).write(call);
+    }
+    graph.traversal().V(mergedIds.toArray()).toStream().forEach(Vertex::remove);
+    graph.tx().commit();
+  }
+
+  /**
+   * Label and member value of every out edge of the call, sorted.
+   */
+  private Signature signature(Vertex call) {
+    long[] edges = new long[8];
+    int size = 0;
+    Iterator<Edge> edgesIt = call.edges(Direction.OUT);
+    while (edgesIt.hasNext()) {
+      Edge edge = edgesIt.next();
+      if (size == edges.length) {
+        edges = Arrays.copyOf(edges, size * 2);
+      }
+      long label = labelCodes.computeIfAbsent(edge.label(), x -> labelCodes.size());
+      edges[size++] = label << 32 | memberCode(edge.inVertex());
+    }
+    edges = Arrays.copyOf(edges, size);
+    Arrays.sort(edges);
+    return new Signature(edges);
+  }
+
+  private int memberCode(Vertex member) {
+    return memberCodes.computeIfAbsent(member.id(), id -> valueCodes
+        .computeIfAbsent(member.<String>value("value"), x -> valueCodes.size()));
+  }
+
+  private static class Group {
+
+    private final Object callId;
+    private final List<Object> mergedIds = new ArrayList<>();
+    // Merged state of the durations of the calls to merge.
+    private final AggregateState state = new AggregateState();
+
+    Group(Object callId) {
+      this.callId = callId;
+    }
+  }
+
+  private static final class Signature {
+
+    private final long[] edges;
+    private final int hash;
+
+    Signature(long[] edges) {
+      this.edges = edges;
+      this.hash = Arrays.hashCode(edges);
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      return other instanceof Signature && Arrays.equals(edges, ((Signature) other).edges);
+    }
+  }
+}
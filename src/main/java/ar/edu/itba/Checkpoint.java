@@ -0,0 +1,258 @@
+package ar.edu.itba;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Properties;
+
+/**
+ * Keeps track of what has already been ingested from a data directory: the byte offset up to which
+ * each file was loaded, and the mapping from the ids used in the csv files to vertex ids, which is
+ * needed to append rows that refer to previously loaded phones, date times or calls. It is stored
+ * next to the csv files.
+ *
+ * While calls are loaded, each committed batch is appended to a log, with the calls it created and
+ * the offset up to which the rows of its partition were read. A load that is interrupted resumes
+ * from the log, skipping the rows that were already committed.
+ */
+public class Checkpoint {
+
+  private static final String OFFSETS_FILE = "ingest.checkpoint";
+  private static final String IDS_FILE = "ingest.ids";
+  private static final String CALLS_LOG = "ingest.calls";
+  // Whether every call in the graph was loaded with its hierarchy keys.
+  private static final String HIERARCHY_KEYS = "hierarchyKeys";
+
+  private final Path directory;
+  private final Properties offsets = new Properties();
+
+  private final LongLongMap phoneIdsMap = new LongLongMap();
+  private final LongLongMap dateTimesIdsMap = new LongLongMap();
+  private final LongLongMap callIdsMap = new LongLongMap();
+
+  // Offset up to which the calls of each partition were committed by an unfinished load, if any.
+  private long[] callProgress;
+  // Length of the complete batches of its log, which is appended to after them.
+  private long callLogLength;
+  private DataOutputStream callLog;
+
+  private Checkpoint(Path directory) {
+    this.directory = directory;
+  }
+
+  /**
+   * Loads the offsets of the checkpoint of the directory, or an empty one if nothing was ingested
+   * from it yet. The ids are only read by {@link #loadIds()}, once there are new rows to ingest.
+   */
+  public static Checkpoint load(Path directory) throws IOException {
+    Checkpoint checkpoint = new Checkpoint(directory);
+    Path offsetsFile = directory.resolve(OFFSETS_FILE);
+    if (!Files.exists(offsetsFile) || !Files.exists(directory.resolve(IDS_FILE))) {
+      return checkpoint;
+    }
+    try (InputStream in = Files.newInputStream(offsetsFile)) {
+      checkpoint.offsets.load(in);
+    }
+    return checkpoint;
+  }
+
+  /**
+   * Reads the ids of the rows already ingested, and the calls committed by a load of the calls
+   * file that did not finish.
+   */
+  public void loadIds() throws IOException {
+    if (isEmpty()) {
+      return;
+    }
+    try (DataInputStream in = new DataInputStream(
+        new BufferedInputStream(Files.newInputStream(directory.resolve(IDS_FILE))))) {
+      phoneIdsMap.readFrom(in);
+      dateTimesIdsMap.readFrom(in);
+      callIdsMap.readFrom(in);
+    }
+    Path logFile = directory.resolve(CALLS_LOG);
+    if (!Files.exists(logFile)) {
+      return;
+    }
+    try (DataInputStream in =
+        new DataInputStream(new BufferedInputStream(Files.newInputStream(logFile)))) {
+      String file = in.readUTF();
+      long start = in.readLong();
+      long[] progress = new long[in.readInt()];
+      if (start != offset(file)) {
+        // The load finished, but the log was not removed.
+        return;
+      }
+      Arrays.fill(progress, start);
+      callProgress = progress;
+      callLogLength = 2 + file.getBytes(StandardCharsets.UTF_8).length + 8 + 4;
+      while (true) {
+        int partition = in.readInt();
+        long offset = in.readLong();
+        int calls = in.readInt();
+        for (int i = 0; i < calls; i++) {
+          callIdsMap.put(in.readLong(), in.readLong());
+        }
+        progress[partition] = offset;
+        callLogLength += 4 + 8 + 4 + calls * 16L;
+      }
+    } catch (EOFException e) {
+      // The last batch may have been logged partially, only the complete ones are kept.
+    }
+  }
+
+  /**
+   * Removes the checkpoint of the directory, so that next time everything is ingested again.
+   */
+  public static void clear(Path directory) throws IOException {
+    Files.deleteIfExists(directory.resolve(OFFSETS_FILE));
+    Files.deleteIfExists(directory.resolve(IDS_FILE));
+    Files.deleteIfExists(directory.resolve(CALLS_LOG));
+  }
+
+  public boolean isEmpty() {
+    return offsets.isEmpty();
+  }
+
+  /**
+   * Byte offset up to which the file was ingested.
+   */
+  public long offset(String file) {
+    return Long.parseLong(offsets.getProperty(file, "0"));
+  }
+
+  public void setOffset(String file, long offset) {
+    offsets.setProperty(file, String.valueOf(offset));
+  }
+
+  /**
+   * Whether every call ingested has the keys of its ancestors, see {@link HierarchyKeys}.
+   */
+  public boolean hasHierarchyKeys() {
+    return Boolean.parseBoolean(offsets.getProperty(HIERARCHY_KEYS));
+  }
+
+  public void setHierarchyKeys(boolean hierarchyKeys) {
+    offsets.setProperty(HIERARCHY_KEYS, String.valueOf(hierarchyKeys));
+  }
+
+  /**
+   * Whether the file has rows that were not ingested yet.
+   */
+  public boolean hasNewRows(String file) throws IOException {
+    return Files.size(directory.resolve(file)) > offset(file);
+  }
+
+  public LongLongMap phoneIdsMap() {
+    return phoneIdsMap;
+  }
+
+  public LongLongMap dateTimesIdsMap() {
+    return dateTimesIdsMap;
+  }
+
+  public LongLongMap callIdsMap() {
+    return callIdsMap;
+  }
+
+  /**
+   * Offset up to which the rows of each partition of calls were committed by a load that did not
+   * finish, or null if there is none. Rows of a call are partitioned by the call id modulo the
+   * amount of partitions.
+   */
+  public long[] callProgress() {
+    return callProgress;
+  }
+
+  /**
+   * Whether there is a log of calls, which may be of a load that did not finish.
+   */
+  public boolean hasCallLog() {
+    return Files.exists(directory.resolve(CALLS_LOG));
+  }
+
+  /**
+   * Starts logging the batches of calls committed from the file, or keeps appending to the log of
+   * the unfinished load being resumed.
+   */
+  public synchronized void startCallLog(String file, int partitions) throws IOException {
+    Path logFile = directory.resolve(CALLS_LOG);
+    if (callProgress != null) {
+      if (callProgress.length != partitions) {
+        throw new IllegalArgumentException(String.format(
+            "Resuming a load of %d partitions with %d", callProgress.length, partitions));
+      }
+      // Drops the batch that may have been logged partially.
+      try (FileChannel channel = FileChannel.open(logFile, StandardOpenOption.WRITE)) {
+        channel.truncate(callLogLength);
+      }
+      callLog = new DataOutputStream(new BufferedOutputStream(
+          Files.newOutputStream(logFile, StandardOpenOption.APPEND)));
+      return;
+    }
+    callLog = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(logFile)));
+    callLog.writeUTF(file);
+    callLog.writeLong(offset(file));
+    callLog.writeInt(partitions);
+    callLog.flush();
+  }
+
+  /**
+   * Records a committed batch of calls, with the offset up to which the rows of its partition were
+   * read and the vertex ids of the calls it created.
+   */
+  public synchronized void logCalls(int partition, long offset, LongLongMap newCallIdsMap)
+      throws IOException {
+    callLog.writeInt(partition);
+    callLog.writeLong(offset);
+    newCallIdsMap.writeTo(callLog);
+    callLog.flush();
+  }
+
+  /**
+   * Stores the checkpoint. Files are replaced atomically, so a failure while saving keeps the
+   * previous checkpoint.
+   */
+  public synchronized void save() throws IOException {
+    Path idsFile = directory.resolve(IDS_FILE + ".tmp");
+    try (DataOutputStream out =
+        new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(idsFile)))) {
+      phoneIdsMap.writeTo(out);
+      dateTimesIdsMap.writeTo(out);
+      callIdsMap.writeTo(out);
+    }
+    Path offsetsFile = directory.resolve(OFFSETS_FILE + ".tmp");
+    try (OutputStream out = Files.newOutputStream(offsetsFile)) {
+      offsets.store(out, "Ingested byte offsets");
+    }
+    Files.move(idsFile, directory.resolve(IDS_FILE), StandardCopyOption.REPLACE_EXISTING,
+        StandardCopyOption.ATOMIC_MOVE);
+    Files.move(offsetsFile, directory.resolve(OFFSETS_FILE), StandardCopyOption.REPLACE_EXISTING,
+        StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  /**
+   * Stores the checkpoint once the calls load finished, and removes its log.
+   */
+  public synchronized void finishCallLog() throws IOException {
+    if (callLog != null) {
+      callLog.close();
+      callLog = null;
+    }
+    save();
+    callProgress = null;
+    Files.deleteIfExists(directory.resolve(CALLS_LOG));
+  }
+}
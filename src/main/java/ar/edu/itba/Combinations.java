@@ -0,0 +1,73 @@
+package ar.edu.itba;
+
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+/**
+ * Enumerates the combinations of k members of a call in ascending order of ids, so that each set of
+ * members is visited once instead of once per permutation, as nested loops over all the members
+ * would.
+ */
+public class Combinations {
+
+  private Combinations() {
+  }
+
+  /**
+   * Sorts the ids and drops the repeated ones.
+   */
+  public static int[] distinct(int[] ids) {
+    int[] sorted = ids.clone();
+    Arrays.sort(sorted);
+    int size = 0;
+    for (int i = 0; i < sorted.length; i++) {
+      if (i == 0 || sorted[i] != sorted[i - 1]) {
+        sorted[size++] = sorted[i];
+      }
+    }
+    return size == sorted.length ? sorted : Arrays.copyOf(sorted, size);
+  }
+
+  /**
+   * Gives each combination of k of the distinct ids, in ascending order. The array given to the
+   * consumer is reused for the next combination.
+   */
+  public static void forEach(int[] ids, int k, Consumer<int[]> consumer) {
+    int[] members = distinct(ids);
+    if (k <= 0 || k > members.length) {
+      return;
+    }
+    // Positions in members of the current combination.
+    int[] positions = new int[k];
+    int[] combination = new int[k];
+    for (int i = 0; i < k; i++) {
+      positions[i] = i;
+    }
+    while (true) {
+      for (int i = 0; i < k; i++) {
+        combination[i] = members[positions[i]];
+      }
+      consumer.accept(combination);
+      // Advance the last position that can still move, and reset the ones after it.
+      int i = k - 1;
+      while (i >= 0 && positions[i] == members.length - k + i) {
+        i--;
+      }
+      if (i < 0) {
+        return;
+      }
+      positions[i]++;
+      for (int j = i + 1; j < k; j++) {
+        positions[j] = positions[j - 1] + 1;
+      }
+    }
+  }
+
+  /**
+   * Adds each combination of k of the distinct ids, k being the size of the tuples of the keys, as
+   * a group of the call being added.
+   */
+  public static void addKeys(int[] ids, TupleKeys keys, GroupAccumulator groups) {
+    forEach(ids, keys.k(), combination -> groups.key(keys.key(combination)));
+  }
+}
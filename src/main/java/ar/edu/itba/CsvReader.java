@@ -0,0 +1,274 @@
+package ar.edu.itba;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Reads the rows of a CSV file through memory-mapped windows of the file, so that memory usage
+ * does not depend on the size of the file. Fields are parsed straight from the mapped bytes, and
+ * strings are only created when asked for. Keeps track of the byte offset of the rows read, which
+ * is used to report progress and to resume reading.
+ *
+ * Fields may be quoted, in which case they may contain commas, line breaks and quotes escaped as
+ * two quotes. Indexes within a field are relative to its bytes between the quotes.
+ */
+public class CsvReader implements Closeable {
+
+  private static final long WINDOW_SIZE = 64L << 20;
+
+  private final FileChannel channel;
+  private final long size;
+  private final long windowSize;
+
+  private MappedByteBuffer window;
+  private long windowStart;
+  private long offset;
+
+  private int[] fieldStarts = new int[8];
+  private int[] fieldEnds = new int[8];
+  private boolean[] fieldQuoted = new boolean[8];
+  private int fieldCount;
+
+  public CsvReader(Path file) throws IOException {
+    this(file, 0);
+  }
+
+  /**
+   * Starts reading the file at the given byte offset, which should be the start of a row.
+   */
+  public CsvReader(Path file, long offset) throws IOException {
+    this(file, offset, WINDOW_SIZE);
+  }
+
+  CsvReader(Path file, long offset, long windowSize) throws IOException {
+    channel = FileChannel.open(file, StandardOpenOption.READ);
+    size = channel.size();
+    this.offset = offset;
+    this.windowSize = windowSize;
+  }
+
+  /**
+   * Moves to the next non empty row. Returns false if the end of the file was reached.
+   */
+  public boolean next() throws IOException {
+    while (offset < size) {
+      if (window == null || offset >= windowStart + window.limit()) {
+        map(offset);
+      }
+      int start = (int) (offset - windowStart);
+      int end = rowEnd(start);
+      if (end < 0) {
+        if (windowStart + window.limit() < size) {
+          if (start == 0) {
+            throw new IOException("Row longer than " + windowSize + " bytes at offset " + offset);
+          }
+          // The row continues in the next window.
+          map(offset);
+          continue;
+        }
+        end = window.limit();
+        offset = windowStart + end;
+      } else {
+        offset = windowStart + end + 1;
+      }
+      if (end > start && window.get(end - 1) == '\r') {
+        end--;
+      }
+      if (end - start >= 3 && (window.get(start) & 0xFF) == 0xEF
+          && (window.get(start + 1) & 0xFF) == 0xBB && (window.get(start + 2) & 0xFF) == 0xBF) {
+        // Skip the byte order mark.
+        start += 3;
+      }
+      if (split(start, end)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Amount of fields of the current row.
+   */
+  public int fields() {
+    return fieldCount;
+  }
+
+  public long longField(int field) {
+    int start = fieldStart(field);
+    int end = fieldEnds[field];
+    boolean negative = start < end && window.get(start) == '-';
+    int i = negative ? start + 1 : start;
+    if (i == end) {
+      throw new NumberFormatException("Empty number at offset " + (windowStart + start));
+    }
+    long value = 0;
+    for (; i < end; i++) {
+      int digit = window.get(i) - '0';
+      if (digit < 0 || digit > 9) {
+        throw new NumberFormatException("Invalid number at offset " + (windowStart + start));
+      }
+      value = value * 10 + digit;
+    }
+    return negative ? -value : value;
+  }
+
+  public int intField(int field) {
+    long value = longField(field);
+    if (value != (int) value) {
+      throw new NumberFormatException("Integer out of range: " + value);
+    }
+    return (int) value;
+  }
+
+  public String stringField(int field) {
+    int start = fieldStart(field);
+    byte[] bytes = new byte[fieldEnds[field] - start];
+    int length = 0;
+    for (int i = start; i < fieldEnds[field]; i++) {
+      bytes[length++] = window.get(i);
+      if (fieldQuoted[field] && window.get(i) == '"') {
+        // Skips the second quote of an escaped one.
+        i++;
+      }
+    }
+    return new String(bytes, 0, length, StandardCharsets.UTF_8);
+  }
+
+  public int fieldLength(int field) {
+    int start = fieldStart(field);
+    return fieldEnds[field] - start;
+  }
+
+  /**
+   * Index of the first occurrence of the byte in the field at or after the given index, relative
+   * to the start of the field, or -1 if it does not occur.
+   */
+  public int indexOf(int field, char b, int from) {
+    int start = fieldStart(field);
+    for (int i = start + from; i < fieldEnds[field]; i++) {
+      if (window.get(i) == b) {
+        return i - start;
+      }
+    }
+    return -1;
+  }
+
+  public void appendField(int field, KeyBuilder key) {
+    appendField(field, 0, fieldLength(field), key);
+  }
+
+  /**
+   * Appends the bytes of the field between the given indexes to the key.
+   */
+  public void appendField(int field, int from, int to, KeyBuilder key) {
+    int start = fieldStart(field);
+    for (int i = start + from; i < start + to; i++) {
+      key.append(window.get(i));
+      if (fieldQuoted[field] && window.get(i) == '"') {
+        i++;
+      }
+    }
+  }
+
+  /**
+   * Byte offset right after the last row read.
+   */
+  public long offset() {
+    return offset;
+  }
+
+  public long size() {
+    return size;
+  }
+
+  /**
+   * Percentage of the file that has been read.
+   */
+  public double progress() {
+    return size == 0 ? 100 : offset * 100 / (double) size;
+  }
+
+  @Override
+  public void close() throws IOException {
+    channel.close();
+  }
+
+  private void map(long start) throws IOException {
+    windowStart = start;
+    window =
+        channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(windowSize, size - start));
+  }
+
+  /**
+   * Index of the line break that ends the row starting at the given index, skipping the ones in
+   * quoted fields, or -1 if the row does not end in the window.
+   */
+  private int rowEnd(int from) {
+    int limit = window.limit();
+    boolean quoted = false;
+    for (int i = from; i < limit; i++) {
+      byte b = window.get(i);
+      if (b == '"') {
+        quoted = !quoted;
+      } else if (b == '\n' && !quoted) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Finds the fields of the row between start and end. Returns false if the row is blank.
+   */
+  private boolean split(int start, int end) {
+    boolean blank = true;
+    boolean quoted = false;
+    fieldCount = 0;
+    int fieldStart = start;
+    for (int i = start; i < end; i++) {
+      byte b = window.get(i);
+      if (b > ' ' || b < 0) {
+        blank = false;
+      }
+      if (b == '"') {
+        quoted = !quoted;
+      } else if (b == ',' && !quoted) {
+        addField(fieldStart, i);
+        fieldStart = i + 1;
+      }
+    }
+    if (blank) {
+      return false;
+    }
+    addField(fieldStart, end);
+    return true;
+  }
+
+  private void addField(int start, int end) {
+    if (fieldCount == fieldStarts.length) {
+      fieldStarts = Arrays.copyOf(fieldStarts, fieldCount * 2);
+      fieldEnds = Arrays.copyOf(fieldEnds, fieldCount * 2);
+      fieldQuoted = Arrays.copyOf(fieldQuoted, fieldCount * 2);
+    }
+    // The bytes of a quoted field are the ones between its quotes.
+    boolean quoted = end - start >= 2 && window.get(start) == '"' && window.get(end - 1) == '"';
+    fieldStarts[fieldCount] = quoted ? start + 1 : start;
+    fieldEnds[fieldCount] = quoted ? end - 1 : end;
+    fieldQuoted[fieldCount] = quoted;
+    fieldCount++;
+  }
+
+  private int fieldStart(int field) {
+    if (field >= fieldCount) {
+      throw new IndexOutOfBoundsException(
+          String.format("Row ending at offset %d has %d fields", offset, fieldCount));
+    }
+    return fieldStarts[field];
+  }
+}
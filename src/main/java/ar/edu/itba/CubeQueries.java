@@ -0,0 +1,195 @@
+package ar.edu.itba;
+
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+import org.janusgraph.core.JanusGraph;
+import org.javatuples.Pair;
+import org.javatuples.Triplet;
+
+/**
+ * The queries of {@link QueriesOlap} run over a {@link FactTable} instead of the graph. Tuples,
+ * filters and aggregations are the same as the ones of the graph, so that results can be compared
+ * with {@link #verify(JanusGraph, String)}.
+ */
+public class CubeQueries {
+
+  public static boolean printTuples;
+  // Aggregation to use instead of the one of each query, if set.
+  public static Aggregation aggregation;
+
+  // Relative difference below which results of both engines are considered equal.
+  private static final double TOLERANCE = 1e-9;
+
+  public static void run(FactTable table, String query) {
+    switch (query) {
+      case "1_1":
+        pairs(table, table.all(), "phone", Aggregation.AVG, false);
+        break;
+      case "1_2":
+        pairs(table, table.all(), "phone", Aggregation.AVG, true);
+        break;
+      case "1_3":
+        pairs(table, table.all(), "user", Aggregation.MAX, false);
+        break;
+      case "1_4":
+        pairs(table, table.all(), "user", Aggregation.COUNT, false);
+        break;
+      case "1_5":
+        query1_5(table);
+        break;
+      case "1_6":
+        pairs(table, table.facts("month", "4-2017"::equals), "user", Aggregation.COUNT, false);
+        break;
+      case "2_1":
+        query2_1(table);
+        break;
+      default:
+        throw new IllegalArgumentException("Unknown cube query: " + query);
+    }
+  }
+
+  /**
+   * Runs the query over the fact table and over the graph, and reports the tuples whose results
+   * differ. The table is extracted before the graph query, since it may roll up the graph.
+   */
+  public static void verify(JanusGraph graph, String query) {
+    FactTable table = FactTable.extract(graph);
+    Map<String, Double> cubeResults = new HashMap<>();
+    PrintUtils.results = cubeResults;
+    run(table, query);
+    Map<String, Double> graphResults = new HashMap<>();
+    PrintUtils.results = graphResults;
+    switch (query) {
+      case "1_1":
+        QueriesOlap.query1_1(graph);
+        break;
+      case "1_2":
+        QueriesOlap.query1_2(graph);
+        break;
+      case "1_3":
+        QueriesOlap.query1_3(graph);
+        break;
+      case "1_4":
+        QueriesOlap.query1_4(graph);
+        break;
+      case "1_5":
+        QueriesOlap.query1_5(graph);
+        break;
+      case "1_6":
+        QueriesOlap.query1_6(graph);
+        break;
+      case "2_1":
+        QueriesOlap.query2_1(graph);
+        break;
+    }
+    PrintUtils.results = null;
+
+    int mismatches = 0;
+    for (Map.Entry<String, Double> entry : graphResults.entrySet()) {
+      Double cubeResult = cubeResults.get(entry.getKey());
+      if (cubeResult == null || !close(cubeResult, entry.getValue())) {
+        System.out.println(String.format("%s: graph %s, cube %s", entry.getKey(), entry.getValue(),
+            cubeResult));
+        mismatches++;
+      }
+    }
+    for (String tuple : cubeResults.keySet()) {
+      if (!graphResults.containsKey(tuple)) {
+        System.out.println(String.format("%s: only in cube", tuple));
+        mismatches++;
+      }
+    }
+    System.out.println(String.format("%d tuples compared, %d mismatches", graphResults.size(),
+        mismatches));
+  }
+
+  private static boolean close(double a, double b) {
+    return a == b || Math.abs(a - b) <= TOLERANCE * Math.max(Math.abs(a), Math.abs(b));
+  }
+
+  /**
+   * Pairs of members of each call at the "top" level, or of its caller and its participants if
+   * "diffCaller", as QueriesOlap.query() does.
+   */
+  private static void pairs(FactTable table, BitSet facts, String top, Aggregation agg,
+      boolean diffCaller) {
+    Aggregation finished = aggregationOr(agg);
+    int[] mapping = table.rollUp("phone", top);
+    GroupAccumulator groups = table.aggregate(facts, finished, (fact, factGroups) -> {
+      if (!diffCaller) {
+        Combinations.addKeys(table.members(fact, mapping), TupleKeys.PAIRS, factGroups);
+        return;
+      }
+      int caller = mapping[table.caller(fact)];
+      for (int i = 0; i < table.participantCount(fact); i++) {
+        int participant = mapping[table.participant(fact, i)];
+        if (caller < participant) {
+          factGroups.key(Dictionary.pair(caller, participant));
+        }
+      }
+    });
+    groups.forEach((key, result) -> PrintUtils.printResult(
+        new Pair<>(table.value(top, Dictionary.first(key)),
+            table.value(top, Dictionary.second(key))),
+        result, printTuples));
+  }
+
+  /**
+   * Users of each call, the first one ordered after the second one, by the month of the call.
+   */
+  private static void query1_5(FactTable table) {
+    Aggregation finished = aggregationOr(Aggregation.COUNT);
+    int[] users = table.rollUp("phone", "user");
+    int[] months = table.rollUp("timestamp", "month");
+    TupleKeys keys =
+        new TupleKeys(3, Math.max(table.levelSize("user"), table.levelSize("month")));
+    GroupAccumulator groups = table.aggregate(table.all(), finished, (fact, factGroups) -> {
+      int month = months[table.time(fact)];
+      Combinations.forEach(table.members(fact, users), 2, pair ->
+          factGroups.key(keys.triplet(pair[1], pair[0], month)));
+    });
+    groups.forEach((key, result) -> PrintUtils.printResult(
+        new Triplet<>(table.value("user", keys.id(key, 0)),
+            table.value("user", keys.id(key, 1)),
+            table.value("month", keys.id(key, 2))),
+        result, printTuples));
+  }
+
+  /**
+   * Triplets of distinct users of each call of April 2017, in order.
+   */
+  private static void query2_1(FactTable table) {
+    Aggregation finished = aggregationOr(Aggregation.AVG);
+    int[] users = table.rollUp("phone", "user");
+    BitSet facts = table.facts("month", "4-2017"::equals);
+    TupleKeys keys = new TupleKeys(3, table.levelSize("user"));
+    GroupAccumulator groups = table.aggregate(facts, finished, (fact, factGroups) ->
+        Combinations.addKeys(table.members(fact, users), keys, factGroups));
+    groups.forEach((key, result) -> PrintUtils.printResult(
+        new Triplet<>(table.value("user", keys.id(key, 0)),
+            table.value("user", keys.id(key, 1)),
+            table.value("user", keys.id(key, 2))),
+        result, printTuples));
+  }
+
+  /**
+   * Whether the fact table can finish the aggregation. Facts keep the parts of their states, but
+   * not their sketches.
+   */
+  public static boolean supports(Aggregation agg) {
+    switch (agg) {
+      case P50:
+      case P95:
+      case P99:
+      case DISTINCT_MEMBERS:
+        return false;
+      default:
+        return true;
+    }
+  }
+
+  private static Aggregation aggregationOr(Aggregation agg) {
+    return aggregation != null ? aggregation : agg;
+  }
+}
@@ -1,214 +1,429 @@
 package ar.edu.itba;
 
 import java.io.IOException;
-import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.Arrays;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.apache.tinkerpop.gremlin.structure.Vertex;
 import org.janusgraph.core.JanusGraph;
 import org.janusgraph.core.JanusGraphTransaction;
 import org.janusgraph.core.JanusGraphVertex;
 
 public class DataReader {
 
-  private HashMap<String, JanusGraphVertex> usersMap = new HashMap<>();
-  private HashMap<String, JanusGraphVertex> operatorsMap = new HashMap<>();
-  private HashMap<String, JanusGraphVertex> citiesMap = new HashMap<>();
-  private HashMap<String, JanusGraphVertex> countriesMap = new HashMap<>();
-  private HashMap<String, JanusGraphVertex> yearsMap = new HashMap<>();
-  private HashMap<String, JanusGraphVertex> monthYearsMap = new HashMap<>();
-  private HashMap<String, JanusGraphVertex> datesMap = new HashMap<>();
-  private HashMap<String, JanusGraphVertex> timestampMap = new HashMap<>();
-  private HashMap<String, JanusGraphVertex> allsMap = new HashMap<>();
-  private HashMap<String, JanusGraphVertex> phonesMap = new HashMap<>();
-
-  private HashMap<Long, JanusGraphVertex> phoneIdsMap = new HashMap<>();
-  private HashMap<Long, JanusGraphVertex> dateTimesIdsMap = new HashMap<>();
-  private HashMap<Long, JanusGraphVertex> callIdsMap = new HashMap<>();
+  private static final String USERS_FILE = "emisorreceptor.csv";
+  private static final String DATE_TIMES_FILE = "datetime.csv";
+  private static final String CALLS_FILE = "call.csv";
+
+  private static final long NO_ID = -1;
+
+  // Dimension members, from value to vertex id.
+  private BytesLongMap usersMap = new BytesLongMap();
+  private BytesLongMap operatorsMap = new BytesLongMap();
+  private BytesLongMap citiesMap = new BytesLongMap();
+  private BytesLongMap countriesMap = new BytesLongMap();
+  private BytesLongMap yearsMap = new BytesLongMap();
+  private BytesLongMap monthYearsMap = new BytesLongMap();
+  private BytesLongMap datesMap = new BytesLongMap();
+  private BytesLongMap timestampMap = new BytesLongMap();
+  private BytesLongMap phonesMap = new BytesLongMap();
+  private ObjectLongMap<String> allsMap = new ObjectLongMap<>();
+
+  // Ids in the csv files to vertex id.
+  private LongLongMap phoneIdsMap = new LongLongMap();
+  private LongLongMap dateTimesIdsMap = new LongLongMap();
 
   private JanusGraph graph;
   private String path;
+  private int callWorkers = 1;
+  private HierarchyKeys hierarchyKeys;
+  private boolean callsHaveHierarchyKeys;
+  private Dictionary dictionary;
 
   public DataReader(final JanusGraph graph, final String path) {
     this.path = path;
     this.graph = graph;
   }
 
-  public void buildGraph() throws IOException {
-    newAll("Locations");
-    newAll("Operators");
-    newAll("Times");
-
+  /**
+   * Sets the amount of threads used to load the calls.
+   */
+  public void setCallWorkers(int callWorkers) {
+    this.callWorkers = callWorkers;
+  }
 
-    parseUsers();
-    parseDateTimes();
-    parseCalls();
+  /**
+   * Whether to store on each call the keys of the ancestors of its members and timestamp, see
+   * {@link HierarchyKeys}.
+   */
+  public void setHierarchyKeys(boolean enabled) {
+    this.hierarchyKeys = enabled ? new HierarchyKeys() : null;
   }
 
-  private void parseUsers() throws IOException {
-    JanusGraphTransaction tx = graph.newTransaction();
-    List<String> lines = Files.readAllLines(Paths.get(path + "/emisorreceptor.csv"));
+  /**
+   * Ingests the rows of the data files that were not ingested yet. Dimension members that already
+   * exist in the graph are reused, so running it again over the same files adds nothing.
+   * 
+   * The users and date times files are ingested concurrently, while the calls file is already being
+   * parsed. Calls are added as soon as both dimensions are loaded.
+   */
+  public void buildGraph() throws IOException, InterruptedException {
+    Checkpoint checkpoint = Checkpoint.load(Paths.get(path));
+    boolean newUsers = checkpoint.hasNewRows(USERS_FILE);
+    boolean newDateTimes = checkpoint.hasNewRows(DATE_TIMES_FILE);
+    boolean newCalls = checkpoint.hasNewRows(CALLS_FILE);
+    if (newCalls) {
+      // Calls loaded before without keys keep the graph without them.
+      boolean firstCalls =
+          checkpoint.offset(CALLS_FILE) == 0 && !checkpoint.hasCallLog();
+      checkpoint.setHierarchyKeys(
+          hierarchyKeys != null && (firstCalls || checkpoint.hasHierarchyKeys()));
+    }
+    callsHaveHierarchyKeys = checkpoint.hasHierarchyKeys();
+    if (!newUsers && !newDateTimes && !newCalls) {
+      System.out.println("Graph is up to date with " + path);
+      updateDictionary(false);
+      return;
+    }
 
-    for (int i = 0; i < lines.size(); i++) {
-      String line = lines.get(i);
-      if (line.trim().isEmpty()) {
-        continue;
+    checkpoint.loadIds();
+    phoneIdsMap = checkpoint.phoneIdsMap();
+    dateTimesIdsMap = checkpoint.dateTimesIdsMap();
+
+    if (checkpoint.isEmpty()) {
+      JanusGraphTransaction tx = graph.newTransaction();
+      newAll(tx, "Locations");
+      newAll(tx, "Operators");
+      newAll(tx, "Times");
+      tx.commit();
+      tx.close();
+    } else {
+      rehydrate(newUsers, newDateTimes);
+      if (hierarchyKeys != null && newCalls) {
+        hierarchyKeys.rehydrate(graph);
       }
-      String[] vars = line.replace("\uFEFF", "").split(",");
-      long id = Long.parseLong(vars[0]);
-      String phone = vars[1];
-      String operator = vars[2];
-      String user = vars[3];
-      String city = vars[4];
-      String country = vars[5];
-
-      addVertexAndEdge(allsMap.get("Locations"), countriesMap, "country", country);
-      addVertexAndEdge(countriesMap.get(country), citiesMap, "city", city);
-      addVertexAndEdge(citiesMap.get(city), usersMap, "user", user);
-      addVertexAndEdge(allsMap.get("Operators"), operatorsMap, "operator", operator);
-
-      addPhoneVertexAndEdge(operatorsMap.get(operator), usersMap.get(user), phonesMap, phone);
-
-      phoneIdsMap.put(id, phonesMap.get(phone));
-
-      if (i % 1000 == 0) {
-        System.out
-            .println(String.format("User progress: %.2f %%", i * 100 / (double) lines.size()));
-        tx.commit();
-        tx.close();
-        tx = graph.newTransaction();
+    }
+
+    long usersOffset = checkpoint.offset(USERS_FILE);
+    long dateTimesOffset = checkpoint.offset(DATE_TIMES_FILE);
+
+    ExecutorService executor = Executors.newFixedThreadPool(3);
+    try {
+      Future<Long> users =
+          executor.submit(() -> newUsers ? parseUsers(usersOffset) : usersOffset);
+      Future<Long> dateTimes =
+          executor.submit(() -> newDateTimes ? parseDateTimes(dateTimesOffset) : dateTimesOffset);
+      // Dimensions are recorded before any call refers to them, so they are not ingested again if
+      // the calls fail.
+      Future<Void> dimensions = executor.submit(() -> {
+        awaitAll(users, dateTimes);
+        checkpoint.setOffset(USERS_FILE, users.get());
+        checkpoint.setOffset(DATE_TIMES_FILE, dateTimes.get());
+        checkpoint.save();
+        return null;
+      });
+
+      try {
+        if (newCalls) {
+          // Each batch of calls is logged to the checkpoint as it is committed.
+          checkpoint.setOffset(CALLS_FILE, parseCalls(checkpoint, dimensions));
+          checkpoint.finishCallLog();
+        }
+      } catch (Throwable e) {
+        // The dimensions are still recorded if they load, and their failure does not hide the one
+        // of the calls.
+        suppress(e, dimensions);
+        throw e;
       }
+      await(dimensions);
+    } finally {
+      executor.shutdownNow();
     }
+    updateDictionary(newUsers || newDateTimes);
+    // Views and the phone graph are built again from the new calls when they are needed.
+    MaterializedViews.clear(Paths.get(path));
+    PhoneGraph.clear(Paths.get(path));
+  }
 
-    tx.commit();
-    tx.close();
+  /**
+   * Whether every call in the graph has the keys of its ancestors, so that queries can read them.
+   */
+  public boolean callsHaveHierarchyKeys() {
+    return callsHaveHierarchyKeys;
   }
 
-  private void parseDateTimes() throws IOException {
-    JanusGraphTransaction tx = graph.newTransaction();
-    List<String> lines = Files.readAllLines(Paths.get(path + "/datetime.csv"));
+  /**
+   * Dictionary of the dimension members in the graph, available once it is built.
+   */
+  public Dictionary dictionary() {
+    return dictionary;
+  }
+
+  /**
+   * Loads the dictionary stored next to the csv files, or builds and stores it again if there are
+   * new members or it was not stored yet.
+   */
+  private void updateDictionary(boolean newMembers) throws IOException {
+    Path directory = Paths.get(path);
+    dictionary = newMembers ? null : Dictionary.load(directory);
+    if (dictionary == null) {
+      dictionary = Dictionary.build(graph);
+      dictionary.save(directory);
+    }
+  }
 
-    for (int i = 0; i < lines.size(); i++) {
-      String line = lines.get(i);
-      if (line.trim().isEmpty()) {
-        continue;
+  private static <T> T await(Future<T> future) throws IOException, InterruptedException {
+    try {
+      return future.get();
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
       }
-      String[] vars = line.replace("\uFEFF", "").split(",");
-      long id = Long.parseLong(vars[0]);
-      String time = vars[1].split(" ")[1];
-      String day = vars[2];
-      String month = vars[3];
-      String year = vars[4];
-      String monthYear = month + "-" + year;
-      String date = day + "-" + monthYear;
-      String timestamp = time + " " + date;
-
-      addVertexAndEdge(allsMap.get("Times"), yearsMap, "year", year);
-      addVertexAndEdge(yearsMap.get(year), monthYearsMap, "month", monthYear);
-      addVertexAndEdge(monthYearsMap.get(monthYear), datesMap, "day", date);
-      addVertexAndEdge(datesMap.get(date), timestampMap, "timestamp", timestamp);
-
-      dateTimesIdsMap.put(id, timestampMap.get(timestamp));
-
-      if (i % 1000 == 0) {
-        System.out
-            .println(String.format("Date time progress: %.2f %%", i * 100 / (double) lines.size()));
-        tx.commit();
-        tx.close();
-        tx = graph.newTransaction();
+      throw new IllegalStateException("Dimension load failed", e.getCause());
+    }
+  }
+
+  /**
+   * Waits for all the loads, and throws the failure of the first one that failed, with the failures
+   * of the rest suppressed.
+   */
+  private static void awaitAll(Future<?>... futures) throws IOException, InterruptedException {
+    Exception failure = null;
+    for (Future<?> future : futures) {
+      try {
+        await(future);
+      } catch (IOException | RuntimeException e) {
+        if (failure == null) {
+          failure = e;
+        } else {
+          failure.addSuppressed(e);
+        }
       }
     }
+    if (failure instanceof IOException) {
+      throw (IOException) failure;
+    }
+    if (failure != null) {
+      throw (RuntimeException) failure;
+    }
+  }
 
-    tx.commit();
-    tx.close();
+  /**
+   * Waits for the load, adding its failure, if any, to the given one.
+   */
+  private static void suppress(Throwable failure, Future<?> future) {
+    try {
+      await(future);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      failure.addSuppressed(e);
+    } catch (IOException | RuntimeException e) {
+      failure.addSuppressed(e);
+    }
   }
 
-  private void parseCalls() throws IOException {
-    JanusGraphTransaction tx = graph.newTransaction();
-    List<String> lines = Files.readAllLines(Paths.get(path + "/call.csv"));
+  /**
+   * Loads the dimension members that already exist in the graph through the "type" index, so that
+   * new rows are attached to them instead of creating duplicates.
+   */
+  private void rehydrate(boolean users, boolean dateTimes) {
+    rehydrate("allLocations", "Locations", allsMap);
+    rehydrate("allOperators", "Operators", allsMap);
+    rehydrate("allTimes", "Times", allsMap);
+    if (users) {
+      rehydrate("country", countriesMap);
+      rehydrate("city", citiesMap);
+      rehydrate("user", usersMap);
+      rehydrate("operator", operatorsMap);
+      rehydrate("phone", phonesMap);
+    }
+    if (dateTimes) {
+      rehydrate("year", yearsMap);
+      rehydrate("month", monthYearsMap);
+      rehydrate("day", datesMap);
+      rehydrate("timestamp", timestampMap);
+    }
+    graph.tx().rollback();
+  }
+
+  private void rehydrate(String type, BytesLongMap levelMap) {
+    graph.traversal().V().has("type", type).toStream()
+        .forEach(v -> levelMap.put(v.<String>value("value"), vertexId(v)));
+  }
 
-    for (int i = 0; i < lines.size(); i++) {
-      String line = lines.get(i);
-      if (line.trim().isEmpty()) {
-        continue;
+  private void rehydrate(String type, String key, ObjectLongMap<String> levelMap) {
+    graph.traversal().V().has("type", type).toStream()
+        .forEach(v -> levelMap.put(key, vertexId(v)));
+  }
+
+  private static long vertexId(Vertex vertex) {
+    return ((Number) vertex.id()).longValue();
+  }
+
+  /**
+   * Ingests the users file from the given byte offset and returns the offset up to which it was
+   * read.
+   */
+  private long parseUsers(long offset) throws IOException {
+    JanusGraphTransaction tx = graph.newTransaction();
+    KeyBuilder phone = new KeyBuilder();
+    KeyBuilder operator = new KeyBuilder();
+    KeyBuilder user = new KeyBuilder();
+    KeyBuilder city = new KeyBuilder();
+    KeyBuilder country = new KeyBuilder();
+
+    try (CsvReader reader = new CsvReader(Paths.get(path, USERS_FILE), offset)) {
+      for (int i = 0; reader.next(); i++) {
+        long id = reader.longField(0);
+        field(reader, 1, phone);
+        field(reader, 2, operator);
+        field(reader, 3, user);
+        field(reader, 4, city);
+        field(reader, 5, country);
+
+        long countryId = addVertexAndEdge(tx, allsMap.get("Locations", NO_ID), countriesMap,
+            "country", country);
+        long cityId = addVertexAndEdge(tx, countryId, citiesMap, "city", city);
+        long userId = addVertexAndEdge(tx, cityId, usersMap, "user", user);
+        long operatorId = addVertexAndEdge(tx, allsMap.get("Operators", NO_ID), operatorsMap,
+            "operator", operator);
+
+        long phoneId = addPhoneVertexAndEdge(tx, operatorId, userId, phonesMap, phone);
+
+        phoneIdsMap.put(id, phoneId);
+        if (hierarchyKeys != null) {
+          hierarchyKeys.setLocationParents(phoneId, operatorId, userId, cityId, countryId);
+        }
+
+        if (i % 1000 == 0) {
+          System.out.println(String.format("User progress: %.2f %%", reader.progress()));
+          tx.commit();
+          tx.close();
+          tx = graph.newTransaction();
+        }
       }
-      String[] vars = line.replace("\uFEFF", "").split(",");
-      long id = Long.parseLong(vars[0]);
-      long dateTimeId = Long.parseLong(vars[1]);
-      long callerId = Long.parseLong(vars[2]);
-      long memberId = Long.parseLong(vars[3]);
-      int duration = Integer.parseInt(vars[4]);
-
-      newCall(id, phoneIdsMap.get(callerId), phoneIdsMap.get(memberId),
-          dateTimesIdsMap.get(dateTimeId), duration);
-
-      if (i % 1000 == 0) {
-        System.out
-            .println(String.format("Call progress: %.2f %%", i * 100 / (double) lines.size()));
-        tx.commit();
-        tx.close();
-        tx = graph.newTransaction();
+
+      tx.commit();
+      tx.close();
+      return reader.offset();
+    }
+  }
+
+  /**
+   * Ingests the date times file from the given byte offset and returns the offset up to which it
+   * was read.
+   */
+  private long parseDateTimes(long offset) throws IOException {
+    JanusGraphTransaction tx = graph.newTransaction();
+    KeyBuilder year = new KeyBuilder();
+    KeyBuilder monthYear = new KeyBuilder();
+    KeyBuilder date = new KeyBuilder();
+    KeyBuilder timestamp = new KeyBuilder();
+
+    try (CsvReader reader = new CsvReader(Paths.get(path, DATE_TIMES_FILE), offset)) {
+      for (int i = 0; reader.next(); i++) {
+        long id = reader.longField(0);
+        // Time is the second word of the date time field.
+        int timeStart = reader.indexOf(1, ' ', 0) + 1;
+        int timeEnd = reader.indexOf(1, ' ', timeStart);
+        field(reader, 4, year);
+        field(reader, 3, monthYear).append('-').append(year);
+        field(reader, 2, date).append('-').append(monthYear);
+        timestamp.clear();
+        reader.appendField(1, timeStart, timeEnd < 0 ? reader.fieldLength(1) : timeEnd,
+            timestamp);
+        timestamp.append(' ').append(date);
+
+        long yearId = addVertexAndEdge(tx, allsMap.get("Times", NO_ID), yearsMap, "year", year);
+        long monthId = addVertexAndEdge(tx, yearId, monthYearsMap, "month", monthYear);
+        long dayId = addVertexAndEdge(tx, monthId, datesMap, "day", date);
+        long timestampId = addVertexAndEdge(tx, dayId, timestampMap, "timestamp", timestamp);
+
+        dateTimesIdsMap.put(id, timestampId);
+        if (hierarchyKeys != null) {
+          hierarchyKeys.setTimeParents(timestampId, dayId, monthId, yearId);
+        }
+
+        if (i % 1000 == 0) {
+          System.out.println(String.format("Date time progress: %.2f %%", reader.progress()));
+          tx.commit();
+          tx.close();
+          tx = graph.newTransaction();
+        }
       }
+
+      tx.commit();
+      tx.close();
+      return reader.offset();
     }
+  }
 
-    tx.commit();
-    tx.close();
+  private static KeyBuilder field(CsvReader reader, int field, KeyBuilder key) {
+    key.clear();
+    reader.appendField(field, key);
+    return key;
   }
 
-  private void newAll(String dimension) {
+  /**
+   * Ingests the calls file from the offset of the checkpoint and returns the offset up to which it
+   * was read.
+   * 
+   * @param checkpoint Vertex ids of the calls already in the graph, by call id. New calls are
+   *        added to it.
+   * @param dimensions Loads of the dimensions the calls refer to.
+   */
+  private long parseCalls(Checkpoint checkpoint, Future<?>... dimensions)
+      throws IOException, InterruptedException {
+    CallLoader loader = new CallLoader(graph, phoneIdsMap, dateTimesIdsMap, callWorkers);
+    loader.setHierarchyKeys(hierarchyKeys);
+    return loader.load(Paths.get(path, CALLS_FILE), checkpoint, dimensions);
+  }
+
+  private void newAll(JanusGraphTransaction tx, String dimension) {
     if (allsMap.containsKey(dimension))
       return;
 
-    JanusGraphVertex vertex = graph.addVertex("all" + dimension);
+    JanusGraphVertex vertex = tx.addVertex("all" + dimension);
     vertex.property("type", "all" + dimension);
     vertex.property("value", "all" + dimension);
 
-    allsMap.put(dimension, vertex);
+    allsMap.put(dimension, vertex.longId());
   }
 
-  private void addVertexAndEdge(JanusGraphVertex parent, Map<String, JanusGraphVertex> levelMap,
-      String label, String value) {
-    if (levelMap.containsKey(value))
-      return;
+  /**
+   * Returns the id of the member with the given value, adding it if it does not exist yet.
+   */
+  private long addVertexAndEdge(JanusGraphTransaction tx, long parentId, BytesLongMap levelMap,
+      String label, KeyBuilder value) {
+    long id = levelMap.get(value, NO_ID);
+    if (id != NO_ID)
+      return id;
 
-    JanusGraphVertex vertex = graph.addVertex(label);
+    JanusGraphVertex vertex = tx.addVertex(label);
     vertex.property("type", label);
-    vertex.property("value", value);
-    vertex.addEdge("extendsFrom", parent);
+    vertex.property("value", value.toString());
+    vertex.addEdge("extendsFrom", tx.getVertex(parentId));
 
-    levelMap.put(value, vertex);
+    levelMap.put(value, vertex.longId());
+    return vertex.longId();
   }
 
-  private void addPhoneVertexAndEdge(JanusGraphVertex parentOperator, JanusGraphVertex parentUser,
-      Map<String, JanusGraphVertex> levelMap, String value) {
-    if (levelMap.containsKey(value))
-      return;
+  private long addPhoneVertexAndEdge(JanusGraphTransaction tx, long parentOperatorId,
+      long parentUserId, BytesLongMap levelMap, KeyBuilder value) {
+    long id = levelMap.get(value, NO_ID);
+    if (id != NO_ID)
+      return id;
 
-    JanusGraphVertex vertex = graph.addVertex("phone");
+    JanusGraphVertex vertex = tx.addVertex("phone");
     vertex.property("type", "phone");
-    vertex.property("value", value);
-    vertex.addEdge("extendsFrom", parentOperator);
-    vertex.addEdge("extendsFrom", parentUser);
-
-    levelMap.put(value, vertex);
-  }
-
-  private void newCall(long callId, JanusGraphVertex callerVertex, JanusGraphVertex memberVertex,
-      JanusGraphVertex timeVertex, int duration) {
-    if (!callIdsMap.containsKey(callId)) {
-      JanusGraphVertex vertex = graph.addVertex("call");
-      vertex.property("type", "call");
-      vertex.property("duration", duration);
-      vertex.property("visited", false);
-
-      vertex.addEdge("calledBy", callerVertex);
-      vertex.addEdge("atTime", timeVertex);
-
-      callIdsMap.put(callId, vertex);
-    }
+    vertex.property("value", value.toString());
+    vertex.addEdge("extendsFrom", tx.getVertex(parentOperatorId));
+    vertex.addEdge("extendsFrom", tx.getVertex(parentUserId));
 
-    callIdsMap.get(callId).addEdge("integratedBy", memberVertex);
+    levelMap.put(value, vertex.longId());
+    return vertex.longId();
   }
 }
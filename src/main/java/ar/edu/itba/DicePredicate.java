@@ -0,0 +1,188 @@
+package ar.edu.itba;
+
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+import org.janusgraph.core.JanusGraph;
+
+/**
+ * Condition over the dimension members a call is related to, used to dice the facts. Members are
+ * found by value through the "value" index, one lookup per value, and their facts through the
+ * posting lists of the {@link FactIndex}.
+ *
+ * Time ranges are expanded to the values of every member in the range, since the "value" index only
+ * supports equality.
+ */
+public abstract class DicePredicate {
+
+  /**
+   * Calls related only to the member of the level with the given value.
+   */
+  public static DicePredicate equals(String level, String value) {
+    return new Members(level, Arrays.asList(value), false);
+  }
+
+  /**
+   * Calls not related to the member of the level with the given value.
+   */
+  public static DicePredicate notEquals(String level, String value) {
+    return new Members(level, Arrays.asList(value), true);
+  }
+
+  /**
+   * Calls related only to members of the level with the given values.
+   */
+  public static DicePredicate in(String level, String... values) {
+    return new Members(level, Arrays.asList(values), false);
+  }
+
+  /**
+   * Calls at a time between the given members of a time level, both included. Values have the
+   * format of the members: "2017" for years, "4-2017" for months and "30-4-2017" for days.
+   */
+  public static DicePredicate range(String level, String from, String to) {
+    return new Members(level, expand(level, from, to), false);
+  }
+
+  public static DicePredicate and(DicePredicate... predicates) {
+    return new And(Arrays.asList(predicates));
+  }
+
+  /**
+   * Facts of the index that satisfy the predicate.
+   */
+  abstract BitSet evaluate(JanusGraph graph, FactIndex facts);
+
+  /**
+   * Rough amount of index lookups and fact set operations needed to evaluate it.
+   */
+  abstract int cost();
+
+  private static List<String> expand(String level, String from, String to) {
+    List<String> values = new ArrayList<>();
+    switch (level) {
+      case "year":
+        for (int year = Integer.parseInt(from); year <= Integer.parseInt(to); year++) {
+          values.add(String.valueOf(year));
+        }
+        break;
+      case "month":
+        for (YearMonth month = parseMonth(from); !month.isAfter(parseMonth(to));
+            month = month.plusMonths(1)) {
+          values.add(month.getMonthValue() + "-" + month.getYear());
+        }
+        break;
+      case "day":
+        for (LocalDate day = parseDay(from); !day.isAfter(parseDay(to)); day = day.plusDays(1)) {
+          values.add(day.getDayOfMonth() + "-" + day.getMonthValue() + "-" + day.getYear());
+        }
+        break;
+      default:
+        throw new IllegalArgumentException("Ranges are only supported on time levels: " + level);
+    }
+    return values;
+  }
+
+  private static YearMonth parseMonth(String value) {
+    String[] parts = value.split("-");
+    return YearMonth.of(Integer.parseInt(parts[1]), Integer.parseInt(parts[0]));
+  }
+
+  private static LocalDate parseDay(String value) {
+    String[] parts = value.split("-");
+    return LocalDate.of(Integer.parseInt(parts[2]), Integer.parseInt(parts[1]),
+        Integer.parseInt(parts[0]));
+  }
+
+  private static class Members extends DicePredicate {
+
+    private final String level;
+    private final List<String> values;
+    private final boolean negated;
+
+    Members(String level, List<String> values, boolean negated) {
+      this.level = level;
+      this.values = values;
+      this.negated = negated;
+    }
+
+    @Override
+    BitSet evaluate(JanusGraph graph, FactIndex facts) {
+      Set<Object> memberIds = new HashSet<>();
+      for (String value : values) {
+        graph.traversal().V().has("value", value).has("type", level).id().toStream()
+            .forEach(memberIds::add);
+      }
+      BitSet related = memberIds.isEmpty() ? new BitSet()
+          : facts.postings(graph.traversal().V(memberIds.toArray()));
+      if (negated) {
+        BitSet result = facts.all();
+        result.andNot(related);
+        return result;
+      }
+      if (!FactIndex.isSingleMember(level)) {
+        // Drop the facts also related to other members of the level.
+        Set<String> valueSet = new HashSet<>(values);
+        related.andNot(facts.postings(graph.traversal().V().has("type", level)
+            .filter(v -> !valueSet.contains(v.get().<String>value("value")))));
+      }
+      return related;
+    }
+
+    @Override
+    int cost() {
+      // Negations and levels with several members per call need every fact or member.
+      return negated || !FactIndex.isSingleMember(level) ? Integer.MAX_VALUE / 2 : values.size();
+    }
+
+    @Override
+    public String toString() {
+      if (values.size() == 1) {
+        return String.format("%s %s '%s'", level, negated ? "<>" : "=", values.get(0));
+      }
+      return String.format("%s IN %s", level, values);
+    }
+  }
+
+  private static class And extends DicePredicate {
+
+    private final List<DicePredicate> predicates;
+
+    And(Collection<DicePredicate> predicates) {
+      // Cheapest first, so that the rest can be skipped once nothing is left.
+      this.predicates = predicates.stream().sorted(Comparator.comparingInt(DicePredicate::cost))
+          .collect(Collectors.toList());
+    }
+
+    @Override
+    BitSet evaluate(JanusGraph graph, FactIndex facts) {
+      BitSet result = facts.all();
+      for (DicePredicate predicate : predicates) {
+        if (result.isEmpty()) {
+          break;
+        }
+        result.and(predicate.evaluate(graph, facts));
+      }
+      return result;
+    }
+
+    @Override
+    int cost() {
+      return (int) Math.min(Integer.MAX_VALUE / 2,
+          predicates.stream().mapToLong(DicePredicate::cost).sum());
+    }
+
+    @Override
+    public String toString() {
+      return predicates.stream().map(Object::toString).collect(Collectors.joining(" AND "));
+    }
+  }
+}
@@ -0,0 +1,199 @@
+package ar.edu.itba;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import org.apache.tinkerpop.gremlin.structure.Vertex;
+import org.janusgraph.core.JanusGraph;
+
+/**
+ * Dense int id of each dimension member within its level, so that tuples of members are grouped by
+ * packed longs and only decoded to values when printed. Ids follow the order of the values, so
+ * comparing ids orders tuples as comparing their values does.
+ *
+ * It is built from the members in the graph and stored next to the csv files, see
+ * {@link DataReader#buildGraph()}.
+ */
+public class Dictionary {
+
+  // Timestamps are not grouped by, and are the largest level, so they are left out.
+  public static final String[] LEVELS =
+      {"phone", "user", "city", "country", "operator", "day", "month", "year"};
+
+  private static final String FILE = "dictionary";
+
+  // Member vertex id to its id within its level.
+  private final LongLongMap ids = new LongLongMap();
+  // Values and vertex ids of the members of each level, by id.
+  private final Map<String, String[]> values = new HashMap<>();
+  private final Map<String, long[]> vertexIds = new HashMap<>();
+
+  private Dictionary() {
+  }
+
+  /**
+   * Reads the members of every level from the graph.
+   */
+  public static Dictionary build(JanusGraph graph) {
+    Dictionary dictionary = new Dictionary();
+    for (String level : LEVELS) {
+      List<Vertex> members = graph.traversal().V().has("type", level).toList();
+      members.sort(Comparator.comparing(member -> member.<String>value("value")));
+      String[] levelValues = new String[members.size()];
+      long[] levelVertexIds = new long[members.size()];
+      for (int i = 0; i < levelValues.length; i++) {
+        levelValues[i] = members.get(i).value("value");
+        levelVertexIds[i] = ((Number) members.get(i).id()).longValue();
+        dictionary.ids.put(levelVertexIds[i], i);
+      }
+      dictionary.values.put(level, levelValues);
+      dictionary.vertexIds.put(level, levelVertexIds);
+    }
+    graph.tx().rollback();
+    return dictionary;
+  }
+
+  /**
+   * Loads the dictionary stored in the directory, or returns null if there is none or it has other
+   * levels, as the ones stored with timestamps.
+   */
+  public static Dictionary load(Path directory) throws IOException {
+    Path file = directory.resolve(FILE);
+    if (!Files.exists(file)) {
+      return null;
+    }
+    Dictionary dictionary = new Dictionary();
+    try (DataInputStream in =
+        new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+      for (int i = in.readInt(); i > 0; i--) {
+        String level = in.readUTF();
+        String[] levelValues = new String[in.readInt()];
+        long[] levelVertexIds = new long[levelValues.length];
+        for (int id = 0; id < levelValues.length; id++) {
+          levelVertexIds[id] = in.readLong();
+          levelValues[id] = in.readUTF();
+          dictionary.ids.put(levelVertexIds[id], id);
+        }
+        dictionary.values.put(level, levelValues);
+        dictionary.vertexIds.put(level, levelVertexIds);
+      }
+    }
+    return dictionary.values.keySet().equals(new HashSet<>(Arrays.asList(LEVELS))) ? dictionary
+        : null;
+  }
+
+  /**
+   * Stores the dictionary in the directory, replacing the previous one atomically.
+   */
+  public void save(Path directory) throws IOException {
+    Path file = directory.resolve(FILE + ".tmp");
+    try (DataOutputStream out =
+        new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file)))) {
+      out.writeInt(values.size());
+      for (String level : values.keySet()) {
+        String[] levelValues = values.get(level);
+        long[] levelVertexIds = vertexIds.get(level);
+        out.writeUTF(level);
+        out.writeInt(levelValues.length);
+        for (int id = 0; id < levelValues.length; id++) {
+          out.writeLong(levelVertexIds[id]);
+          out.writeUTF(levelValues[id]);
+        }
+      }
+    }
+    Files.move(file, directory.resolve(FILE), StandardCopyOption.REPLACE_EXISTING,
+        StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  public static void clear(Path directory) throws IOException {
+    Files.deleteIfExists(directory.resolve(FILE));
+  }
+
+  /**
+   * Id of the member within its level.
+   */
+  public int id(Vertex member) {
+    return id(member.id());
+  }
+
+  public int id(Object memberId) {
+    long id = ids.get(((Number) memberId).longValue(), -1);
+    if (id < 0) {
+      throw new IllegalArgumentException("Member not in the dictionary: " + memberId);
+    }
+    return (int) id;
+  }
+
+  /**
+   * Amount of members of the level.
+   */
+  public int size(String level) {
+    return values.get(level).length;
+  }
+
+  public String value(String level, int id) {
+    return values.get(level)[id];
+  }
+
+  public static long pair(int id1, int id2) {
+    return tuple(id1, id2);
+  }
+
+  public static int first(long pair) {
+    return tupleId(pair, 2, 0);
+  }
+
+  public static int second(long pair) {
+    return tupleId(pair, 2, 1);
+  }
+
+  /**
+   * Packs three ids of up to 21 bits, see {@link TupleKeys} for larger levels.
+   */
+  public static long triplet(int id1, int id2, int id3) {
+    return tuple(id1, id2, id3);
+  }
+
+  /**
+   * Packs k ids in a long, the first one in the highest bits. Each id takes 64 / k bits, i.e: 32
+   * for pairs, 21 for triplets and 16 for quadruples.
+   */
+  public static long tuple(int... ids) {
+    int bits = 64 / ids.length;
+    long tuple = 0;
+    for (int id : ids) {
+      if (id < 0 || (bits < 32 && id >>> bits != 0)) {
+        throw new IllegalArgumentException("Too many members to pack " + ids.length + " of them");
+      }
+      tuple = tuple << bits | id;
+    }
+    return tuple;
+  }
+
+  /**
+   * Id at the given index of a tuple of k packed ids.
+   */
+  public static int tupleId(long tuple, int k, int index) {
+    int bits = 64 / k;
+    long mask = bits == 64 ? -1L : (1L << bits) - 1;
+    return (int) (tuple >>> (k - 1 - index) * bits & mask);
+  }
+
+  /**
+   * Id at the given index, from 0 to 2, of a packed triplet.
+   */
+  public static int tripletId(long triplet, int index) {
+    return tupleId(triplet, 3, index);
+  }
+}
@@ -0,0 +1,112 @@
+package ar.edu.itba;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * Column of fixed width values stored in direct buffers, outside of the Java heap, so that the
+ * amount of facts does not add to the work of the garbage collector. Values are read and written
+ * with absolute gets and puts, which allocate nothing.
+ *
+ * A buffer holds up to {@link Integer#MAX_VALUE} bytes, so large columns are split in segments of
+ * 2^27 values, 1 GiB for longs and doubles. A column smaller than a segment is a single buffer,
+ * grown by copying, and a larger one grows by adding segments.
+ */
+public class DirectColumn {
+
+  private static final int SEGMENT_BITS = 27;
+  private static final int SEGMENT_SIZE = 1 << SEGMENT_BITS;
+  private static final int SEGMENT_MASK = SEGMENT_SIZE - 1;
+
+  private final int width;
+  private ByteBuffer[] segments = new ByteBuffer[0];
+  private int capacity;
+
+  /**
+   * Column of values of "width" bytes, with room for "capacity" of them.
+   */
+  public DirectColumn(int width, int capacity) {
+    this.width = width;
+    grow(capacity);
+  }
+
+  public static DirectColumn ofInts(int capacity) {
+    return new DirectColumn(Integer.BYTES, capacity);
+  }
+
+  public static DirectColumn ofLongs(int capacity) {
+    return new DirectColumn(Long.BYTES, capacity);
+  }
+
+  public static DirectColumn ofDoubles(int capacity) {
+    return new DirectColumn(Double.BYTES, capacity);
+  }
+
+  public int capacity() {
+    return capacity;
+  }
+
+  /**
+   * Grows the column, keeping its values, so that it has room for at least "capacity" values.
+   */
+  public void ensureCapacity(int capacity) {
+    if (capacity <= this.capacity) {
+      return;
+    }
+    // Doubles while it is a single buffer, since growing it copies the values.
+    grow(capacity <= SEGMENT_SIZE ? Math.max(capacity, Math.min(this.capacity * 2, SEGMENT_SIZE))
+        : capacity);
+  }
+
+  public int getInt(int index) {
+    return segments[index >>> SEGMENT_BITS].getInt((index & SEGMENT_MASK) * width);
+  }
+
+  public void putInt(int index, int value) {
+    segments[index >>> SEGMENT_BITS].putInt((index & SEGMENT_MASK) * width, value);
+  }
+
+  public long getLong(int index) {
+    return segments[index >>> SEGMENT_BITS].getLong((index & SEGMENT_MASK) * width);
+  }
+
+  public void putLong(int index, long value) {
+    segments[index >>> SEGMENT_BITS].putLong((index & SEGMENT_MASK) * width, value);
+  }
+
+  public double getDouble(int index) {
+    return segments[index >>> SEGMENT_BITS].getDouble((index & SEGMENT_MASK) * width);
+  }
+
+  public void putDouble(int index, double value) {
+    segments[index >>> SEGMENT_BITS].putDouble((index & SEGMENT_MASK) * width, value);
+  }
+
+  private void grow(int capacity) {
+    if (capacity <= SEGMENT_SIZE) {
+      ByteBuffer grown = allocate(capacity);
+      if (segments.length > 0) {
+        segments[0].clear();
+        grown.put(segments[0]);
+      }
+      segments = new ByteBuffer[] {grown};
+      this.capacity = capacity;
+      return;
+    }
+    if (this.capacity < SEGMENT_SIZE) {
+      grow(SEGMENT_SIZE);
+    }
+    int count = (int) (((long) capacity + SEGMENT_MASK) >>> SEGMENT_BITS);
+    int filled = segments.length;
+    segments = Arrays.copyOf(segments, count);
+    for (int i = filled; i < count; i++) {
+      segments[i] = allocate(SEGMENT_SIZE);
+    }
+    this.capacity = (int) Math.min((long) count << SEGMENT_BITS, Integer.MAX_VALUE);
+  }
+
+  private ByteBuffer allocate(int capacity) {
+    return ByteBuffer.allocateDirect(capacity * width).order(ByteOrder.nativeOrder());
+  }
+}
@@ -0,0 +1,83 @@
+package ar.edu.itba;
+
+import static org.apache.tinkerpop.gremlin.process.traversal.dsl.graph.__.has;
+import static org.apache.tinkerpop.gremlin.process.traversal.dsl.graph.__.in;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.Set;
+import org.apache.tinkerpop.gremlin.process.traversal.dsl.graph.GraphTraversal;
+import org.apache.tinkerpop.gremlin.structure.Vertex;
+import org.janusgraph.core.JanusGraph;
+
+/**
+ * Gives each call fact a dense position, so that sets of facts are represented as bit sets. The
+ * calls related to a set of dimension members (their posting list) are found walking down from the
+ * members, and set operations over facts are then bit set operations.
+ */
+public class FactIndex {
+
+  // Levels of which each call is related to a single member.
+  private static final Set<String> SINGLE_MEMBER_LEVELS = new HashSet<>(
+      Arrays.asList("timestamp", "day", "month", "year", "allTimes", "allLocations",
+          "allOperators"));
+
+  // Call vertex id to its position.
+  private final LongLongMap positions = new LongLongMap();
+  // Call vertex id at each position.
+  private long[] ids = new long[1024];
+  private int size;
+
+  public FactIndex(JanusGraph graph) {
+    graph.traversal().V().has("type", "call").id().toStream().forEach(id -> {
+      if (size == ids.length) {
+        ids = Arrays.copyOf(ids, size * 2);
+      }
+      ids[size] = ((Number) id).longValue();
+      positions.put(ids[size], size++);
+    });
+  }
+
+  /**
+   * Whether each call is related to only one member of the level, so that calls related to a member
+   * are not related to any other.
+   */
+  public static boolean isSingleMember(String level) {
+    return SINGLE_MEMBER_LEVELS.contains(level);
+  }
+
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Position of the call, or -1 if it was added after the index was built.
+   */
+  public int positionOf(Vertex call) {
+    return (int) positions.get(((Number) call.id()).longValue(), -1);
+  }
+
+  public long idAt(int position) {
+    return ids[position];
+  }
+
+  public BitSet all() {
+    BitSet facts = new BitSet(size);
+    facts.set(0, size);
+    return facts;
+  }
+
+  /**
+   * Calls related to any of the members.
+   */
+  public BitSet postings(GraphTraversal<Vertex, Vertex> members) {
+    BitSet facts = new BitSet(size);
+    members.repeat(in()).until(has("type", "call")).toStream().forEach(call -> {
+      int position = positionOf(call);
+      if (position >= 0) {
+        facts.set(position);
+      }
+    });
+    return facts;
+  }
+}
@@ -0,0 +1,305 @@
+package ar.edu.itba;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+import org.apache.tinkerpop.gremlin.structure.Direction;
+import org.apache.tinkerpop.gremlin.structure.Edge;
+import org.apache.tinkerpop.gremlin.structure.Vertex;
+import org.janusgraph.core.JanusGraph;
+
+/**
+ * Call facts extracted once from the graph into columns of primitives, so that OLAP queries run
+ * over arrays instead of walking vertices. Dimension members are encoded as dense ids per level, in
+ * the order of their values, with the id of the parent of each member, and each call keeps the ids
+ * of its timestamp, caller and participants and the parts of its {@link AggregateState}.
+ *
+ * Roll ups map member ids through the parent columns, dices are bit sets of facts and aggregations
+ * merge the states of the facts of each group, keyed by ids packed as {@link Dictionary} does.
+ */
+public class FactTable {
+
+  public static final String[] LEVELS =
+      {"phone", "user", "city", "country", "operator", "timestamp", "day", "month", "year"};
+
+  private static final Map<String, String> PARENTS = new HashMap<>();
+
+  static {
+    PARENTS.put("phone", "user");
+    PARENTS.put("user", "city");
+    PARENTS.put("city", "country");
+    PARENTS.put("timestamp", "day");
+    PARENTS.put("day", "month");
+    PARENTS.put("month", "year");
+  }
+
+  private final Map<String, Level> levels = new HashMap<>();
+
+  private int size;
+  // Columns are off heap, so that a large table does not slow down the garbage collector.
+  private final DirectColumn times = DirectColumn.ofInts(1024);
+  private final DirectColumn callers = DirectColumn.ofInts(1024);
+  // Participants of fact i are members[memberOffsets[i]] to members[memberOffsets[i + 1] - 1].
+  private final DirectColumn memberOffsets = DirectColumn.ofInts(1025);
+  private final DirectColumn members = DirectColumn.ofInts(1024);
+  private final DirectColumn counts = DirectColumn.ofLongs(1024);
+  private final DirectColumn sums = DirectColumn.ofDoubles(1024);
+  private final DirectColumn mins = DirectColumn.ofDoubles(1024);
+  private final DirectColumn maxs = DirectColumn.ofDoubles(1024);
+  private final DirectColumn sumsOfSquares = DirectColumn.ofDoubles(1024);
+
+  private FactTable() {
+  }
+
+  /**
+   * Reads the dimensions and the calls of the graph.
+   */
+  public static FactTable extract(JanusGraph graph) {
+    long start = System.currentTimeMillis();
+    FactTable table = new FactTable();
+    for (String name : LEVELS) {
+      Level level = new Level();
+      List<Vertex> members = graph.traversal().V().has("type", name).toList();
+      // Ids follow the order of the values, as the ones of the Dictionary.
+      members.sort(Comparator.comparing(member -> member.<String>value("value")));
+      members.forEach(member -> level.add(vertexId(member), member.<String>value("value")));
+      table.levels.put(name, level);
+    }
+    for (String name : LEVELS) {
+      table.extractParents(graph, name);
+    }
+    graph.traversal().V().has("type", "call").toStream().forEach(table::addFact);
+    graph.tx().rollback();
+    System.out.println(String.format("Extracted %d facts in %d ms", table.size,
+        System.currentTimeMillis() - start));
+    return table;
+  }
+
+  private void extractParents(JanusGraph graph, String name) {
+    Level level = levels.get(name);
+    graph.traversal().V().has("type", name).outE("extendsFrom").toStream().forEach(edge -> {
+      int child = level.idOf(vertexId(edge.outVertex()));
+      long parentVertexId = vertexId(edge.inVertex());
+      for (String parentName : LEVELS) {
+        int parent = levels.get(parentName).idOf(parentVertexId);
+        if (parent >= 0) {
+          level.parents(parentName)[child] = parent;
+          return;
+        }
+      }
+    });
+  }
+
+  private void addFact(Vertex call) {
+    times.ensureCapacity(size + 1);
+    callers.ensureCapacity(size + 1);
+    memberOffsets.ensureCapacity(size + 2);
+    counts.ensureCapacity(size + 1);
+    sums.ensureCapacity(size + 1);
+    mins.ensureCapacity(size + 1);
+    maxs.ensureCapacity(size + 1);
+    sumsOfSquares.ensureCapacity(size + 1);
+    int offset = memberOffsets.getInt(size);
+    Iterator<Edge> edgesIt = call.edges(Direction.OUT);
+    while (edgesIt.hasNext()) {
+      Edge edge = edgesIt.next();
+      long memberVertexId = vertexId(edge.inVertex());
+      switch (edge.label()) {
+        case "atTime":
+          times.putInt(size, levels.get("timestamp").idOf(memberVertexId));
+          break;
+        case "calledBy":
+          callers.putInt(size, levels.get("phone").idOf(memberVertexId));
+          break;
+        case "integratedBy":
+          members.ensureCapacity(offset + 1);
+          members.putInt(offset++, levels.get("phone").idOf(memberVertexId));
+          break;
+      }
+    }
+    memberOffsets.putInt(size + 1, offset);
+    AggregateState state = AggregateState.partsOf(call);
+    counts.putLong(size, state.count());
+    sums.putDouble(size, state.sum());
+    mins.putDouble(size, state.min());
+    maxs.putDouble(size, state.max());
+    sumsOfSquares.putDouble(size, state.sumOfSquares());
+    size++;
+  }
+
+  private static long vertexId(Vertex vertex) {
+    return ((Number) vertex.id()).longValue();
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public BitSet all() {
+    BitSet facts = new BitSet(size);
+    facts.set(0, size);
+    return facts;
+  }
+
+  /**
+   * Timestamp id of the fact.
+   */
+  public int time(int fact) {
+    return times.getInt(fact);
+  }
+
+  /**
+   * Phone id of the caller of the fact.
+   */
+  public int caller(int fact) {
+    return callers.getInt(fact);
+  }
+
+  public int participantCount(int fact) {
+    return memberOffsets.getInt(fact + 1) - memberOffsets.getInt(fact);
+  }
+
+  /**
+   * Phone id of the i-th participant of the fact.
+   */
+  public int participant(int fact, int i) {
+    return members.getInt(memberOffsets.getInt(fact) + i);
+  }
+
+  /**
+   * Caller and participants of the fact, mapped to a level.
+   */
+  public int[] members(int fact, int[] mapping) {
+    int count = participantCount(fact);
+    int[] factMembers = new int[count + 1];
+    factMembers[0] = mapping[caller(fact)];
+    for (int i = 0; i < count; i++) {
+      factMembers[i + 1] = mapping[participant(fact, i)];
+    }
+    return factMembers;
+  }
+
+  public int levelSize(String level) {
+    return level(level).size;
+  }
+
+  public String value(String level, int id) {
+    return level(level).values[id];
+  }
+
+  /**
+   * Id at the "top" level of each member of the "bottom" level.
+   */
+  public int[] rollUp(String bottom, String top) {
+    int[] mapping = new int[levelSize(bottom)];
+    for (int i = 0; i < mapping.length; i++) {
+      mapping[i] = i;
+    }
+    String current = bottom;
+    while (!current.equals(top)) {
+      String parent = current.equals("phone") && top.equals("operator") ? "operator"
+          : PARENTS.get(current);
+      if (parent == null) {
+        throw new IllegalArgumentException(top + " is not above " + bottom);
+      }
+      int[] parents = level(current).parents(parent);
+      for (int i = 0; i < mapping.length; i++) {
+        mapping[i] = parents[mapping[i]];
+      }
+      current = parent;
+    }
+    return mapping;
+  }
+
+  /**
+   * Facts related only to members of the level that pass the filter, as
+   * {@link Operations#diceEquals(String, String)} keeps them.
+   */
+  public BitSet facts(String level, Predicate<String> filter) {
+    boolean time = isTimeLevel(level);
+    int[] mapping = rollUp(time ? "timestamp" : "phone", level);
+    boolean[] accepted = new boolean[levelSize(level)];
+    for (int i = 0; i < accepted.length; i++) {
+      accepted[i] = filter.test(value(level, i));
+    }
+    BitSet facts = new BitSet(size);
+    for (int fact = 0; fact < size; fact++) {
+      boolean kept;
+      if (time) {
+        kept = accepted[mapping[times.getInt(fact)]];
+      } else {
+        kept = accepted[mapping[callers.getInt(fact)]];
+        int end = memberOffsets.getInt(fact + 1);
+        for (int i = memberOffsets.getInt(fact); kept && i < end; i++) {
+          kept = accepted[mapping[members.getInt(i)]];
+        }
+      }
+      if (kept) {
+        facts.set(fact);
+      }
+    }
+    return facts;
+  }
+
+  /**
+   * Adds each fact to the groups given by its keys.
+   */
+  public GroupAccumulator aggregate(BitSet facts, Aggregation agg, GroupKeys groupKeys) {
+    GroupAccumulator groups = new GroupAccumulator(agg);
+    for (int fact = facts.nextSetBit(0); fact >= 0; fact = facts.nextSetBit(fact + 1)) {
+      groupKeys.keysOf(fact, groups);
+      groups.addCall(counts.getLong(fact), sums.getDouble(fact), mins.getDouble(fact),
+          maxs.getDouble(fact), sumsOfSquares.getDouble(fact));
+    }
+    return groups;
+  }
+
+  private static boolean isTimeLevel(String level) {
+    return level.equals("timestamp") || level.equals("day") || level.equals("month")
+        || level.equals("year");
+  }
+
+  private Level level(String name) {
+    Level level = levels.get(name);
+    if (level == null) {
+      throw new IllegalArgumentException("Unknown level: " + name);
+    }
+    return level;
+  }
+
+  /**
+   * Keys of the groups a fact belongs to.
+   */
+  public interface GroupKeys {
+    void keysOf(int fact, GroupAccumulator groups);
+  }
+
+  private static class Level {
+
+    private final LongLongMap ids = new LongLongMap();
+    private String[] values = new String[16];
+    private int size;
+    private final Map<String, int[]> parents = new HashMap<>();
+
+    void add(long vertexId, String value) {
+      if (size == values.length) {
+        values = Arrays.copyOf(values, size * 2);
+      }
+      values[size] = value;
+      ids.put(vertexId, size++);
+    }
+
+    int idOf(long vertexId) {
+      return (int) ids.get(vertexId, -1);
+    }
+
+    int[] parents(String level) {
+      return parents.computeIfAbsent(level, x -> new int[size]);
+    }
+  }
+}
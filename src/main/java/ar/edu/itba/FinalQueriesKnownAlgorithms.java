@@ -1,24 +1,24 @@
 package ar.edu.itba;
 
-import static ar.edu.itba.GraphUtils.getNeighborPhones;
-import static ar.edu.itba.GraphUtils.getUser;
-import static ar.edu.itba.GraphUtils.getUserName;
+import ar.edu.itba.QueryFilters.PhoneFilter;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
-import java.util.PriorityQueue;
 import java.util.Set;
 import java.util.TreeMap;
-import java.util.concurrent.atomic.AtomicInteger;
-import java.util.function.BiFunction;
 import java.util.stream.Collectors;
-import org.apache.tinkerpop.gremlin.process.traversal.dsl.graph.GraphTraversal;
-import org.apache.tinkerpop.gremlin.structure.Vertex;
 import org.janusgraph.core.JanusGraph;
 
 public class FinalQueriesKnownAlgorithms {
 
   public static boolean printTuples;
+  // Phones that took part in calls together, extracted from the graph if not set.
+  public static PhoneGraph phoneGraph;
+  // Whether to compute all pairs distances with Floyd-Warshall instead of BFS, to cross-check them.
+  public static boolean floydWarshall;
+  // Threads that update the tiles of Floyd-Warshall.
+  public static int workers = Runtime.getRuntime().availableProcessors();
 
   public static void query2_a(JanusGraph graph) {
     Map<String, Map<String, Integer>> distancesMap = shortestDistanceBetweenUsers(graph, null);
@@ -44,40 +44,45 @@ public class FinalQueriesKnownAlgorithms {
   }
 
   /**
-   * Prints the shortest distance between users applying the corresponding filter, using
-   * Floyd-Warshall algorithm.
+   * Prints the shortest distance between users applying the corresponding filter, using a BFS from
+   * 64 phones at a time, or Floyd-Warshall algorithm if set.
    * 
    * @param graph Graph to apply the algorithm.
-   * @param filter Filter to be applied, that receives two phone vertices. (i.e: User phones not
-   *        from the same city, or calls between phones with different operator). If null, a dummy
-   *        always-true filter is applied.
+   * @param filter Filter to be applied, that receives two phones of the {@link PhoneGraph}. (i.e:
+   *        User phones not from the same city, or calls between phones with different operator).
+   *        If null, a dummy always-true filter is applied.
    */
   public static Map<String, Map<String, Integer>> shortestDistanceBetweenUsers(JanusGraph graph,
-      BiFunction<Vertex, Vertex, Boolean> filter) {
+      PhoneFilter filter) {
 
-    Data data = new Data(graph);
+    Data data = new Data(phoneGraph(graph));
+    if (floydWarshall) {
+      floydWarshall(data, filter);
+    } else {
+      new MultiSourceBfs(data.phones).forEachDistance(filter, data::addDistance);
+    }
+
+    return data.getDistancesMap(null);
+  }
 
-    for (int k = 0; k < data.vSize; k++) {
-      for (int i = 0; i < data.vSize; i++) {
-        for (int j = 0; j < data.vSize; j++) {
-          int distIJ = data.phoneDistancesMap.get(i).getOrDefault(j, Integer.MAX_VALUE);
-          int distIK = data.phoneDistancesMap.get(i).getOrDefault(k, Integer.MAX_VALUE);
-          int distKJ = data.phoneDistancesMap.get(k).getOrDefault(j, Integer.MAX_VALUE);
+  private static void floydWarshall(Data data, PhoneFilter filter) {
+    BlockedFloydWarshall matrix = BlockedFloydWarshall.of(data.phones);
+    matrix.run(workers);
 
-          if (distIK < Integer.MAX_VALUE && distKJ < Integer.MAX_VALUE &&
-              distIJ > distIK + distKJ) {
-            data.phoneDistancesMap.get(i).put(j, distIK + distKJ);
-          }
+    for (int i = 0; i < data.vSize; i++) {
+      for (int j = 0; j < data.vSize; j++) {
+        int distance = matrix.distance(i, j);
+        if (distance != BlockedFloydWarshall.UNREACHABLE
+            && (filter == null || filter.test(data.phones, i, j))) {
+          data.addDistance(i, j, distance);
         }
       }
     }
-
-    return data.getDistancesMap(filter, null);
   }
 
   /**
-   * Prints the shortest distance between users applying the corresponding filter, using
-   * Dijkstra/BFS algorithm.
+   * Prints the shortest distance between users applying the corresponding filter, using BFS over
+   * the {@link PhoneGraph}.
    * 
    * @param graph Graph to apply the algorithm.
    * @param user Source user to apply the algorithm to. If null the algorithm is applied for every
@@ -96,161 +101,114 @@ public class FinalQueriesKnownAlgorithms {
       return map;
     }
 
-    Data data = new Data(graph);
+    Data data = new Data(phoneGraph(graph));
 
     Set<Integer> phoneIds = data.phoneDataIdsOf(user);
 
-    // Apply Dijkstra's for each user's phone.
+    // Apply BFS for each user's phone, since every call is at distance 1.
     for (Integer phoneId : phoneIds) {
-      // Initialize Dijkstra's priority queue.
-      PriorityQueue<PqNode> pq = new PriorityQueue<>();
-      pq.offer(new PqNode(phoneId, 0));
-      Set<Integer> reached = new HashSet<>();
-      while (!pq.isEmpty() && (threshold < 0 || pq.peek().depth < threshold)) {
-        PqNode curr = pq.poll();
-        // If the vertex was already reached, ignore it.
-        if (reached.contains(curr.id)) {
-          continue;
-        }
-        reached.add(curr.id);
-        data.phoneDistancesMap.get(phoneId).putIfAbsent(curr.id, curr.depth);
-        // For every neighbor not yet reached of the current one, add to the priority queue a node
-        // with the sum of the distances to it.
-        for (Map.Entry<Integer, Integer> edge : data.phoneDistancesMap.get(curr.id).entrySet()) {
-          int neigh = edge.getKey();
-          int dist = edge.getValue();
-          if (!reached.contains(neigh)) {
-            pq.offer(new PqNode(neigh, curr.depth + dist));
-          }
+      int[] distances = data.phones.distancesFrom(phoneId, threshold < 0 ? -1 : threshold - 1);
+      Map<Integer, Integer> phoneDistances = new HashMap<>();
+      for (int phone = 0; phone < distances.length; phone++) {
+        if (distances[phone] >= 0) {
+          phoneDistances.put(phone, distances[phone]);
         }
       }
+      data.phoneDistancesMap.put(phoneId, phoneDistances);
     }
 
-    return data.getDistancesMap(null, user);
+    return data.getDistancesMap(user);
   }
 
 
-  private static class PqNode implements Comparable<PqNode> {
-    int id;
-    int depth;
-
-    PqNode(int id, int depth) {
-      this.id = id;
-      this.depth = depth;
-    }
-
-    @Override
-    public int compareTo(PqNode o) {
-      if (depth == o.depth) {
-        return id - o.id;
-      }
-      return depth - o.depth;
+  private static PhoneGraph phoneGraph(JanusGraph graph) {
+    if (phoneGraph == null) {
+      phoneGraph = PhoneGraph.extract(graph);
     }
+    return phoneGraph;
   }
 
-
   /**
-   * Extracts data from graph. Maps graph id to data id in order to apply Floyd-Warshall algorithm
-   * more easily.
+   * Distances between phones, by id of the {@link PhoneGraph}, and between their users, by user id
+   * of the snapshot until they are returned.
    */
   private static class Data {
 
-    private final JanusGraph graph;
+    private final PhoneGraph phones;
 
-    private final Map<Object, Integer> graphIdToDataIdMap = new HashMap<>();
-    private final Map<Integer, Object> dataIdToGraphIdMap = new HashMap<>();
     private final Map<Integer, Map<Integer, Integer>> phoneDistancesMap = new HashMap<>();
-    private final Map<String, Map<String, Integer>> userDistancesMap = new TreeMap<>();
+    // Distance from each user to the users it reaches, null for users not added yet.
+    private final LongLongMap[] userDistances;
 
     private final int vSize;
 
-    Data(JanusGraph graph) {
-      this.graph = graph;
-      GraphTraversal<Vertex, Vertex> phones = graph.traversal().V().has("type", "phone");
-
-      final AtomicInteger id = new AtomicInteger(0);
-
-      phones.toStream().forEach(phone1 -> {
-        // Add phone1 to maps.
-        Object graphId1 = phone1.id();
-        if (graphIdToDataIdMap.putIfAbsent(graphId1, id.get()) == null) {
-          dataIdToGraphIdMap.put(id.getAndIncrement(), graphId1);
-        }
-        int dataId1 = graphIdToDataIdMap.get(graphId1);
-        // Add distance between phone1 and phone1 as 0.
-        phoneDistancesMap.computeIfAbsent(dataId1, x -> new HashMap<>()).put(dataId1, 0);
-
-        getNeighborPhones(graph, phone1)
-            .toStream().forEach(phone2 -> {
-
-              // Add phone2 to maps.
-              Object graphId2 = phone2.id();
-              if (graphIdToDataIdMap.putIfAbsent(graphId2, id.get()) == null) {
-                dataIdToGraphIdMap.put(id.getAndIncrement(), graphId2);
-              }
-              int dataId2 = graphIdToDataIdMap.get(graphId2);
-              if (dataId1 == dataId2) {
-                return;
-              }
-              // Add distance between phone1 and phone2 as 1.
-              phoneDistancesMap.get(dataId1).put(dataId2, 1);
-            });
-      });
-
-      vSize = id.get();
+    Data(PhoneGraph phones) {
+      this.phones = phones;
+      vSize = phones.size();
+      userDistances = new LongLongMap[phones.userCount()];
     }
 
     public Set<Integer> phoneDataIdsOf(String user) {
-      return GraphUtils.phoneIdsOf(graph, user).stream()
-          .map(graphId -> graphIdToDataIdMap.get(graphId))
-          .collect(Collectors.toSet());
+      int userId = phones.userId(user);
+      if (userId < 0) {
+        return new HashSet<>();
+      }
+      return Arrays.stream(phones.phonesOf(userId)).boxed().collect(Collectors.toSet());
+    }
+
+    /**
+     * Updates the distance between the users of the phones.
+     */
+    void addDistance(int dataId1, int dataId2, int distance) {
+      // Add user1 to map.
+      LongLongMap distances = distancesOf(phones.user(dataId1));
+
+      // Update distance between user1 and user2.
+      int user2 = phones.user(dataId2);
+      long currDist = distances.get(user2, -1);
+      if (currDist < 0 || distance < currDist) {
+        distances.put(user2, distance);
+      }
     }
 
-    public Map<String, Map<String, Integer>> getDistancesMap(
-        BiFunction<Vertex, Vertex, Boolean> filter, String user) {
-      if (!userDistancesMap.isEmpty()) {
-        return userDistancesMap;
+    private LongLongMap distancesOf(int user) {
+      if (userDistances[user] == null) {
+        userDistances[user] = new LongLongMap();
       }
+      return userDistances[user];
+    }
+
+    public Map<String, Map<String, Integer>> getDistancesMap(String user) {
+      int userId = user == null ? -1 : phones.userId(user);
       for (Map.Entry<Integer, Map<Integer, Integer>> e1 : phoneDistancesMap.entrySet()) {
-        // Get phone1 and user 1
         int dataId1 = e1.getKey();
-        Object graphId1 = dataIdToGraphIdMap.get(dataId1);
-        Vertex phone1 = graph.vertices(graphId1).next();
-        String userName1 = getUserName(getUser(phone1));
-
-        if (user != null && !userName1.equals(user)) {
+        if (user != null && phones.user(dataId1) != userId) {
           continue;
         }
-
-        // Add user1 to map.
-        userDistancesMap.putIfAbsent(userName1, new TreeMap<>());
         for (Map.Entry<Integer, Integer> e2 : e1.getValue().entrySet()) {
-          // Get phone2 and user2.
-          int dataId2 = e2.getKey();
-          int distance = e2.getValue();
-          Object graphId2 = dataIdToGraphIdMap.get(dataId2);
-          Vertex phone2 = graph.vertices(graphId2).next();
-
-          // Make sure filter applies if not null.
-          if (filter == null || filter.apply(phone1, phone2)) {
-            String userName2 = getUserName(getUser(phone2));
-
-            // Update distance between user1 and user2.
-            userDistancesMap.get(userName1).compute(userName2,
-                (x, currDist) -> currDist == null ? distance : (int) Math.min(currDist, distance));
-          }
+          addDistance(dataId1, e2.getKey(), e2.getValue());
         }
       }
 
-      // Add username - username with distance 0 for every user o just `user` if provided.
+      // Add user - user with distance 0 for every user.
       if (user == null) {
-        graph.traversal().V().has("type", "user").toSet()
-            .stream()
-            .forEach(userV -> {
-              String userName = getUserName(userV);
-              userDistancesMap.computeIfAbsent(userName, x -> new TreeMap<>()).put(userName, 0);
-            });
-      } else {
+        for (int userId1 = 0; userId1 < userDistances.length; userId1++) {
+          distancesOf(userId1).put(userId1, 0);
+        }
+      }
+
+      Map<String, Map<String, Integer>> userDistancesMap = new TreeMap<>();
+      for (int userId1 = 0; userId1 < userDistances.length; userId1++) {
+        if (userDistances[userId1] == null) {
+          continue;
+        }
+        Map<String, Integer> distances = new TreeMap<>();
+        userDistances[userId1].forEach((userId2, distance) ->
+            distances.put(phones.userName((int) userId2), (int) distance));
+        userDistancesMap.put(phones.userName(userId1), distances);
+      }
+      // Or just for `user` if provided, even if it has no phones.
+      if (user != null) {
         userDistancesMap.computeIfAbsent(user, x -> new TreeMap<>()).put(user, 0);
       }
 
@@ -1,25 +1,21 @@
 package ar.edu.itba;
 
-import static ar.edu.itba.GraphUtils.getUser;
-import static ar.edu.itba.GraphUtils.getUserName;
-import static ar.edu.itba.GraphUtils.neighborPhones;
-import static ar.edu.itba.GraphUtils.phonesOf;
-import static ar.edu.itba.GraphUtils.toTraversal;
-import static org.apache.tinkerpop.gremlin.process.traversal.P.without;
+import ar.edu.itba.QueryFilters.PhoneFilter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
-import java.util.function.BiFunction;
 import java.util.stream.Collectors;
-import org.apache.tinkerpop.gremlin.process.traversal.Path;
-import org.apache.tinkerpop.gremlin.process.traversal.dsl.graph.GraphTraversal;
-import org.apache.tinkerpop.gremlin.structure.Vertex;
+import java.util.stream.IntStream;
 import org.janusgraph.core.JanusGraph;
 
 public class FinalQueriesNotOlap {
 
   public static boolean printTuples;
+  // Phones that took part in calls together, extracted from the graph if not set.
+  public static PhoneGraph phoneGraph;
 
   public static void query2_a(JanusGraph graph) {
     Map<String, Map<String, Integer>> distancesMap =
@@ -51,17 +47,18 @@ public class FinalQueriesNotOlap {
    * threshold is negative, then it is considered as Integer.MAX_VALUE.
    * 
    * @param graph Graph to apply the algorithm.
-   * @param filter Filter to be applied, that receives two phone vertices. (i.e: User phones not
-   *        from the same city, or calls between phones with different operator). If null, a dummy
-   *        always-true filter is applied.
+   * @param filter Filter to be applied, that receives two phones of the {@link PhoneGraph}. (i.e:
+   *        User phones not from the same city, or calls between phones with different operator).
+   *        If null, a dummy always-true filter is applied.
    * @param user Source user to apply the algorithm to. If null the algorithm is applied for every
    *        pair of users.
    * @param threshold Distance between users will be lower than threshold. If is negative, then it
    *        is considered as Integer.MAX_VALUE.
    */
   public static Map<String, Map<String, Integer>> shortestDistanceBetweenUsers(JanusGraph graph,
-      BiFunction<Vertex, Vertex, Boolean> filter, String user, int threshold) {
-    GraphTraversal<Vertex, Vertex> phones;
+      PhoneFilter filter, String user, int threshold) {
+    PhoneGraph phones = phoneGraph(graph);
+    Collection<Integer> sources;
     if (user != null) {
       // Base case for threshold 0 and 1.
       if (threshold == 0) {
@@ -71,57 +68,52 @@ public class FinalQueriesNotOlap {
         map.computeIfAbsent(user, x -> new HashMap<>()).put(user, 0);
         return map;
       }
-      phones = phonesOf(graph, user);
+      int userId = phones.userId(user);
+      sources = userId < 0 ? new ArrayList<>()
+          : Arrays.stream(phones.phonesOf(userId)).boxed().collect(Collectors.toList());
     } else {
-      phones = graph.traversal().V().has("type", "phone");
+      sources = IntStream.range(0, phones.size()).boxed().collect(Collectors.toList());
     }
 
-    List<GraphTraversal<Vertex, Path>> shortestPaths = phones.toStream()
-        .map(phone -> toTraversal(graph, phone.id())
-            .store("boundary") // Used to store the vertices reached by phone.
-            .until(trv -> trv.loops() + 1 >= (threshold < 0 ? Integer.MAX_VALUE : threshold))
-            // Consider only those that haven't been reached yet, and add new reached to boundary.
-            .repeat(neighborPhones().where(without("boundary")).aggregate("boundary"))
-            .emit() // Emit the results.
-            .filter(filter == null ? x -> true : trv -> {
-              Vertex src = GraphUtils.getPathVertex(trv, 0);
-              Vertex dst = GraphUtils.getPathVertex(trv, -1);
-              return filter.apply(src, dst);
-            }) // Filter required ones.
-            .dedup() // Remove paths of same length between two vertices.
-            .path())
-        .collect(Collectors.toList());
-
-    return toDistancesMap(graph, shortestPaths, user);
-  }
-
-  private static Map<String, Map<String, Integer>> toDistancesMap(
-      JanusGraph graph, List<GraphTraversal<Vertex, Path>> paths, String user) {
     Map<String, Map<String, Integer>> distancesMap = new TreeMap<>();
+    for (int source : sources) {
+      // Phones reached at a distance lower than the threshold, each one at the shortest one.
+      int[] distances = phones.distancesFrom(source, threshold < 0 ? -1 : threshold - 1);
+      String userName1 = phones.userName(phones.user(source));
+      for (int phone = 0; phone < distances.length; phone++) {
+        if (distances[phone] <= 0) {
+          continue;
+        }
+        if (filter != null && !filter.test(phones, source, phone)) {
+          continue;
+        }
+        String userName2 = phones.userName(phones.user(phone));
+        int distance = distances[phone];
 
-    paths.stream().forEach(l -> l.toStream().forEach(p -> {
-      String userName1 = getUserName(getUser((Vertex) p.get(0)));
-      String userName2 = getUserName(getUser((Vertex) p.get(p.size() - 1)));
-      int distance = (p.size() - 1) / 2; // Between 2 phones there's a call node.
-
-      // Update distance between user1 and user2.
-      distancesMap.computeIfAbsent(userName1, x -> new TreeMap<>())
-          .compute(userName2,
-              (x, currDist) -> currDist == null ? distance : (int) Math.min(currDist, distance));
-    }));
+        // Update distance between user1 and user2.
+        distancesMap.computeIfAbsent(userName1, x -> new TreeMap<>())
+            .compute(userName2,
+                (x, currDist) -> currDist == null ? distance : (int) Math.min(currDist, distance));
+      }
+    }
 
     // Add username - username with distance 0 for every user o just `user` if provided.
     if (user == null) {
-      graph.traversal().V().has("type", "user").toSet()
-          .stream()
-          .forEach(userV -> {
-            String userName = getUserName(userV);
-            distancesMap.computeIfAbsent(userName, x -> new TreeMap<>()).put(userName, 0);
-          });
+      for (int userId = 0; userId < phones.userCount(); userId++) {
+        String userName = phones.userName(userId);
+        distancesMap.computeIfAbsent(userName, x -> new TreeMap<>()).put(userName, 0);
+      }
     } else {
       distancesMap.computeIfAbsent(user, x -> new TreeMap<>()).put(user, 0);
     }
 
     return distancesMap;
   }
+
+  private static PhoneGraph phoneGraph(JanusGraph graph) {
+    if (phoneGraph == null) {
+      phoneGraph = PhoneGraph.extract(graph);
+    }
+    return phoneGraph;
+  }
 }
@@ -0,0 +1,260 @@
+package ar.edu.itba;
+
+import java.util.Arrays;
+import org.apache.tinkerpop.gremlin.structure.Vertex;
+
+/**
+ * Aggregates calls into groups as they are read, keeping only the partial aggregation of each group
+ * in an open addressing table keyed by packed member ids (see {@link Dictionary}). Memory is
+ * proportional to the amount of groups, instead of keeping the calls of every group until the end.
+ *
+ * The keys of a call are given with {@link #key(long)} and the call is then added once to each of
+ * its groups, as sets of calls did. Groups keep their count, sum, minimum, maximum and sum of
+ * squares as primitives, unless the aggregation needs the sketches of a whole
+ * {@link AggregateState}.
+ */
+public class GroupAccumulator {
+
+  private final Aggregation agg;
+  private final boolean keepsStates;
+
+  private long[] keys;
+  private boolean[] used;
+  private long[] counts;
+  private double[] sums;
+  private double[] mins;
+  private double[] maxs;
+  private double[] sumsOfSquares;
+  private AggregateState[] states;
+  private int size;
+
+  // Keys of the call being added.
+  private long[] callKeys = new long[16];
+  private int callKeysSize;
+
+  public GroupAccumulator(Aggregation agg) {
+    this.agg = agg;
+    this.keepsStates = agg == Aggregation.P50 || agg == Aggregation.P95
+        || agg == Aggregation.P99 || agg == Aggregation.DISTINCT_MEMBERS;
+    allocate(LongLongMap.capacityFor(16));
+  }
+
+  /**
+   * Adds a group of the call being added. Repeated keys are only added once.
+   */
+  public void key(long key) {
+    if (callKeysSize == callKeys.length) {
+      callKeys = Arrays.copyOf(callKeys, callKeysSize * 2);
+    }
+    callKeys[callKeysSize++] = key;
+  }
+
+  /**
+   * Adds the call to the groups given since the last call was added, if any.
+   */
+  public void addCall(Vertex call) {
+    addCall(call, null);
+  }
+
+  /**
+   * Adds the call to the groups given since the last call was added, if any, with its members
+   * rolled up through the view.
+   */
+  public void addCall(Vertex call, RollUpView view) {
+    if (callKeysSize > 0) {
+      // Only the sketches need the whole state, which is much larger than its parts.
+      addCall(keepsStates ? Operations.stateOf(call, agg, view) : AggregateState.partsOf(call));
+    }
+  }
+
+  public void addCall(AggregateState state) {
+    distinctCallKeys();
+    for (int i = 0; i < callKeysSize; i++) {
+      int slot = slotOf(callKeys[i]);
+      if (keepsStates) {
+        states[slot].merge(state);
+      } else {
+        merge(slot, state.count(), state.sum(), state.min(), state.max(), state.sumOfSquares());
+      }
+    }
+    callKeysSize = 0;
+  }
+
+  /**
+   * Adds a call given by the parts of its state, which has no sketches.
+   */
+  public void addCall(long count, double sum, double min, double max, double sumOfSquares) {
+    distinctCallKeys();
+    for (int i = 0; i < callKeysSize; i++) {
+      int slot = slotOf(callKeys[i]);
+      if (keepsStates) {
+        states[slot].merge(count, sum, min, max, sumOfSquares);
+      } else {
+        merge(slot, count, sum, min, max, sumOfSquares);
+      }
+    }
+    callKeysSize = 0;
+  }
+
+  /**
+   * Adds the groups of an accumulator of other calls, as partial aggregations of disjoint sets of
+   * calls are merged.
+   */
+  public void merge(GroupAccumulator other) {
+    for (int i = 0; i < other.keys.length; i++) {
+      if (!other.used[i]) {
+        continue;
+      }
+      int slot = slotOf(other.keys[i]);
+      if (keepsStates) {
+        states[slot].merge(other.states[i]);
+      } else {
+        merge(slot, other.counts[i], other.sums[i], other.mins[i], other.maxs[i],
+            other.sumsOfSquares[i]);
+      }
+    }
+  }
+
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Finishes the aggregation of each group.
+   */
+  public void forEach(ResultConsumer consumer) {
+    for (int slot = 0; slot < keys.length; slot++) {
+      if (!used[slot]) {
+        continue;
+      }
+      AggregateState state = keepsStates ? states[slot] : new AggregateState()
+          .merge(counts[slot], sums[slot], mins[slot], maxs[slot], sumsOfSquares[slot]);
+      consumer.accept(keys[slot], agg.of(state));
+    }
+  }
+
+  /**
+   * Gives the partial aggregation of each group, without finishing it.
+   */
+  public void forEachState(StateConsumer consumer) {
+    for (int slot = 0; slot < keys.length; slot++) {
+      if (used[slot]) {
+        consumer.accept(keys[slot], keepsStates ? states[slot] : new AggregateState()
+            .merge(counts[slot], sums[slot], mins[slot], maxs[slot], sumsOfSquares[slot]));
+      }
+    }
+  }
+
+  /**
+   * Whether the aggregation needs the sketches of the states, and not only their parts.
+   */
+  public boolean keepsStates() {
+    return keepsStates;
+  }
+
+  /**
+   * Sorts the keys of the call and drops the repeated ones.
+   */
+  private void distinctCallKeys() {
+    Arrays.sort(callKeys, 0, callKeysSize);
+    int distinct = 0;
+    for (int i = 0; i < callKeysSize; i++) {
+      if (i == 0 || callKeys[i] != callKeys[i - 1]) {
+        callKeys[distinct++] = callKeys[i];
+      }
+    }
+    callKeysSize = distinct;
+  }
+
+  private void merge(int slot, long count, double sum, double min, double max,
+      double sumOfSquares) {
+    counts[slot] += count;
+    sums[slot] += sum;
+    mins[slot] = Math.min(mins[slot], min);
+    maxs[slot] = Math.max(maxs[slot], max);
+    sumsOfSquares[slot] += sumOfSquares;
+  }
+
+  /**
+   * Slot of the group, which is added if it does not exist yet.
+   */
+  private int slotOf(long key) {
+    int slot = find(key);
+    if (used[slot]) {
+      return slot;
+    }
+    if ((size + 1) * 2 > keys.length) {
+      rehash(keys.length * 2);
+      slot = find(key);
+    }
+    used[slot] = true;
+    keys[slot] = key;
+    if (keepsStates) {
+      states[slot] = new AggregateState();
+    } else {
+      mins[slot] = Double.POSITIVE_INFINITY;
+      maxs[slot] = Double.NEGATIVE_INFINITY;
+    }
+    size++;
+    return slot;
+  }
+
+  private int find(long key) {
+    int mask = keys.length - 1;
+    int slot = LongLongMap.hash(key) & mask;
+    while (used[slot] && keys[slot] != key) {
+      slot = (slot + 1) & mask;
+    }
+    return slot;
+  }
+
+  private void allocate(int capacity) {
+    keys = new long[capacity];
+    used = new boolean[capacity];
+    if (keepsStates) {
+      states = new AggregateState[capacity];
+      return;
+    }
+    counts = new long[capacity];
+    sums = new double[capacity];
+    mins = new double[capacity];
+    maxs = new double[capacity];
+    sumsOfSquares = new double[capacity];
+  }
+
+  private void rehash(int capacity) {
+    long[] oldKeys = keys;
+    boolean[] oldUsed = used;
+    long[] oldCounts = counts;
+    double[] oldSums = sums;
+    double[] oldMins = mins;
+    double[] oldMaxs = maxs;
+    double[] oldSumsOfSquares = sumsOfSquares;
+    AggregateState[] oldStates = states;
+    allocate(capacity);
+    for (int i = 0; i < oldKeys.length; i++) {
+      if (oldUsed[i]) {
+        int slot = find(oldKeys[i]);
+        used[slot] = true;
+        keys[slot] = oldKeys[i];
+        if (keepsStates) {
+          states[slot] = oldStates[i];
+          continue;
+        }
+        counts[slot] = oldCounts[i];
+        sums[slot] = oldSums[i];
+        mins[slot] = oldMins[i];
+        maxs[slot] = oldMaxs[i];
+        sumsOfSquares[slot] = oldSumsOfSquares[i];
+      }
+    }
+  }
+
+  public interface ResultConsumer {
+    void accept(long key, double result);
+  }
+
+  public interface StateConsumer {
+    void accept(long key, AggregateState state);
+  }
+}
@@ -0,0 +1,106 @@
+package ar.edu.itba;
+
+import org.apache.tinkerpop.gremlin.structure.Edge;
+import org.janusgraph.core.JanusGraph;
+import org.janusgraph.core.JanusGraphVertex;
+
+/**
+ * Keeps the ancestors of every phone and timestamp while loading, in order to store on each call
+ * the vertex id of its ancestor at every level of the hierarchies. Queries can then group calls by
+ * any level reading the call properties, without traversing the dimensions.
+ *
+ * Location keys hold the ancestors of all the members of the call (caller and participants), so
+ * they are multi-valued. Time keys are single-valued.
+ *
+ * Location parents are only written by the users load and time parents by the date times load, so
+ * both loads can run concurrently.
+ */
+public class HierarchyKeys {
+
+  public static final String USER = "userKey";
+  public static final String CITY = "cityKey";
+  public static final String COUNTRY = "countryKey";
+  public static final String OPERATOR = "operatorKey";
+  public static final String DAY = "dayKey";
+  public static final String MONTH = "monthKey";
+  public static final String YEAR = "yearKey";
+
+  public static final String[] LOCATION_KEYS = {USER, CITY, COUNTRY, OPERATOR};
+  public static final String[] TIME_KEYS = {DAY, MONTH, YEAR};
+
+  private static final long NO_ID = -1;
+
+  private final LongLongMap phoneUsersMap = new LongLongMap();
+  private final LongLongMap phoneOperatorsMap = new LongLongMap();
+  // User to city and city to country.
+  private final LongLongMap locationParentsMap = new LongLongMap();
+  // Timestamp to day, day to month and month to year.
+  private final LongLongMap timeParentsMap = new LongLongMap();
+
+  public void setLocationParents(long phoneId, long operatorId, long userId, long cityId,
+      long countryId) {
+    phoneOperatorsMap.put(phoneId, operatorId);
+    phoneUsersMap.put(phoneId, userId);
+    locationParentsMap.put(userId, cityId);
+    locationParentsMap.put(cityId, countryId);
+  }
+
+  public void setTimeParents(long timestampId, long dayId, long monthId, long yearId) {
+    timeParentsMap.put(timestampId, dayId);
+    timeParentsMap.put(dayId, monthId);
+    timeParentsMap.put(monthId, yearId);
+  }
+
+  /**
+   * Loads the ancestors of the phones and timestamps already in the graph.
+   */
+  public void rehydrate(JanusGraph graph) {
+    graph.traversal().V().has("type", "phone").outE("extendsFrom").toStream().forEach(edge -> {
+      if (edge.inVertex().label().equals("user")) {
+        phoneUsersMap.put(outId(edge), inId(edge));
+      } else {
+        phoneOperatorsMap.put(outId(edge), inId(edge));
+      }
+    });
+    for (String type : new String[] {"user", "city"}) {
+      graph.traversal().V().has("type", type).outE("extendsFrom").toStream()
+          .forEach(edge -> locationParentsMap.put(outId(edge), inId(edge)));
+    }
+    for (String type : new String[] {"timestamp", "day", "month"}) {
+      graph.traversal().V().has("type", type).outE("extendsFrom").toStream()
+          .forEach(edge -> timeParentsMap.put(outId(edge), inId(edge)));
+    }
+    graph.tx().rollback();
+  }
+
+  /**
+   * Adds the keys of the ancestors of a member of the call.
+   */
+  public void addMemberKeys(JanusGraphVertex call, long phoneId) {
+    long userId = phoneUsersMap.get(phoneId, NO_ID);
+    long cityId = locationParentsMap.get(userId, NO_ID);
+    call.property(USER, userId);
+    call.property(CITY, cityId);
+    call.property(COUNTRY, locationParentsMap.get(cityId, NO_ID));
+    call.property(OPERATOR, phoneOperatorsMap.get(phoneId, NO_ID));
+  }
+
+  /**
+   * Adds the keys of the ancestors of the timestamp of the call.
+   */
+  public void addTimeKeys(JanusGraphVertex call, long timestampId) {
+    long dayId = timeParentsMap.get(timestampId, NO_ID);
+    long monthId = timeParentsMap.get(dayId, NO_ID);
+    call.property(DAY, dayId);
+    call.property(MONTH, monthId);
+    call.property(YEAR, timeParentsMap.get(monthId, NO_ID));
+  }
+
+  private static long outId(Edge edge) {
+    return ((Number) edge.outVertex().id()).longValue();
+  }
+
+  private static long inId(Edge edge) {
+    return ((Number) edge.inVertex().id()).longValue();
+  }
+}
@@ -0,0 +1,62 @@
+package ar.edu.itba;
+
+/**
+ * Approximate count of distinct ids in a fixed amount of memory (2 KiB), with a standard error of
+ * about 2%. Sketches are merged keeping the maximum of each register.
+ */
+public class HyperLogLog {
+
+  private static final int PRECISION = 11;
+  private static final int REGISTERS = 1 << PRECISION;
+  private static final double ALPHA = 0.7213 / (1 + 1.079 / REGISTERS);
+
+  private final byte[] registers = new byte[REGISTERS];
+
+  public void add(long id) {
+    long hash = mix(id);
+    int register = (int) (hash >>> (64 - PRECISION));
+    // Position of the first 1 bit in the remaining bits, counting from 1.
+    int rank = Long.numberOfLeadingZeros(hash << PRECISION | 1L << (PRECISION - 1)) + 1;
+    if (rank > registers[register]) {
+      registers[register] = (byte) rank;
+    }
+  }
+
+  public HyperLogLog merge(HyperLogLog other) {
+    for (int i = 0; i < REGISTERS; i++) {
+      if (other.registers[i] > registers[i]) {
+        registers[i] = other.registers[i];
+      }
+    }
+    return this;
+  }
+
+  public long estimate() {
+    double sum = 0;
+    int zeros = 0;
+    for (byte register : registers) {
+      sum += 1.0 / (1L << register);
+      if (register == 0) {
+        zeros++;
+      }
+    }
+    double estimate = ALPHA * REGISTERS * REGISTERS / sum;
+    if (estimate <= 2.5 * REGISTERS && zeros > 0) {
+      // Small cardinalities are better estimated by the amount of empty registers.
+      estimate = REGISTERS * Math.log(REGISTERS / (double) zeros);
+    }
+    return Math.round(estimate);
+  }
+
+  /**
+   * Finalizer of MurmurHash3, which spreads the bits of the id over the whole hash.
+   */
+  private static long mix(long id) {
+    id ^= id >>> 33;
+    id *= 0xff51afd7ed558ccdL;
+    id ^= id >>> 33;
+    id *= 0xc4ceb9fe1a85ec53L;
+    id ^= id >>> 33;
+    return id;
+  }
+}
@@ -0,0 +1,58 @@
+package ar.edu.itba;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Reusable buffer to build keys out of bytes, so that looking up a key does not require creating
+ * a string.
+ */
+public class KeyBuilder {
+
+  private byte[] bytes = new byte[64];
+  private int length;
+
+  public KeyBuilder clear() {
+    length = 0;
+    return this;
+  }
+
+  public KeyBuilder append(byte b) {
+    if (length == bytes.length) {
+      bytes = Arrays.copyOf(bytes, length * 2);
+    }
+    bytes[length++] = b;
+    return this;
+  }
+
+  /**
+   * Appends an ASCII character.
+   */
+  public KeyBuilder append(char c) {
+    return append((byte) c);
+  }
+
+  public KeyBuilder append(KeyBuilder other) {
+    for (int i = 0; i < other.length; i++) {
+      append(other.bytes[i]);
+    }
+    return this;
+  }
+
+  public int length() {
+    return length;
+  }
+
+  byte byteAt(int index) {
+    return bytes[index];
+  }
+
+  public byte[] toBytes() {
+    return Arrays.copyOf(bytes, length);
+  }
+
+  @Override
+  public String toString() {
+    return new String(bytes, 0, length, StandardCharsets.UTF_8);
+  }
+}
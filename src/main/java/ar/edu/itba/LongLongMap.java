@@ -0,0 +1,135 @@
+package ar.edu.itba;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Open addressing hash map from long to long, that avoids boxing keys and values.
+ */
+public class LongLongMap {
+
+  private static final int MIN_CAPACITY = 16;
+
+  private long[] keys;
+  private long[] values;
+  private boolean[] used;
+  private int size;
+
+  public LongLongMap() {
+    this(MIN_CAPACITY);
+  }
+
+  public LongLongMap(int expectedSize) {
+    allocate(capacityFor(expectedSize));
+  }
+
+  /**
+   * Returns the value of the key, or defaultValue if the key is not in the map.
+   */
+  public long get(long key, long defaultValue) {
+    int slot = find(key);
+    return used[slot] ? values[slot] : defaultValue;
+  }
+
+  public boolean containsKey(long key) {
+    return used[find(key)];
+  }
+
+  public void put(long key, long value) {
+    int slot = find(key);
+    if (!used[slot]) {
+      used[slot] = true;
+      keys[slot] = key;
+      size++;
+    }
+    values[slot] = value;
+    if (size * 2 > keys.length) {
+      rehash(keys.length * 2);
+    }
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public void forEach(Consumer consumer) {
+    for (int i = 0; i < keys.length; i++) {
+      if (used[i]) {
+        consumer.accept(keys[i], values[i]);
+      }
+    }
+  }
+
+  /**
+   * Writes the size of the map followed by its entries.
+   */
+  public void writeTo(DataOutput out) throws IOException {
+    out.writeInt(size);
+    for (int i = 0; i < keys.length; i++) {
+      if (used[i]) {
+        out.writeLong(keys[i]);
+        out.writeLong(values[i]);
+      }
+    }
+  }
+
+  /**
+   * Adds the entries written by {@link #writeTo(DataOutput)}.
+   */
+  public void readFrom(DataInput in) throws IOException {
+    int count = in.readInt();
+    for (int i = 0; i < count; i++) {
+      put(in.readLong(), in.readLong());
+    }
+  }
+
+  public interface Consumer {
+    void accept(long key, long value);
+  }
+
+  static int hash(long key) {
+    key ^= key >>> 33;
+    key *= 0xff51afd7ed558ccdL;
+    key ^= key >>> 33;
+    return (int) key;
+  }
+
+  static int capacityFor(int expectedSize) {
+    int capacity = MIN_CAPACITY;
+    while (capacity < expectedSize * 2) {
+      capacity <<= 1;
+    }
+    return capacity;
+  }
+
+  private int find(long key) {
+    int mask = keys.length - 1;
+    int slot = hash(key) & mask;
+    while (used[slot] && keys[slot] != key) {
+      slot = (slot + 1) & mask;
+    }
+    return slot;
+  }
+
+  private void allocate(int capacity) {
+    keys = new long[capacity];
+    values = new long[capacity];
+    used = new boolean[capacity];
+  }
+
+  private void rehash(int capacity) {
+    long[] oldKeys = keys;
+    long[] oldValues = values;
+    boolean[] oldUsed = used;
+    allocate(capacity);
+    for (int i = 0; i < oldKeys.length; i++) {
+      if (oldUsed[i]) {
+        int slot = find(oldKeys[i]);
+        used[slot] = true;
+        keys[slot] = oldKeys[i];
+        values[slot] = oldValues[i];
+      }
+    }
+  }
+}
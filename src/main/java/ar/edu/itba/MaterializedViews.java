@@ -0,0 +1,367 @@
+package ar.edu.itba;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.janusgraph.core.JanusGraph;
+
+/**
+ * Group-bys of the lattice of location and time levels precomputed from the facts, so that roll up
+ * queries are answered from their rows instead of the calls. A view "user:month" keeps, for every
+ * pair of users taking part in a call and every month, the merged parts of the
+ * {@link AggregateState} of those calls.
+ *
+ * A query is routed to the smallest view with its location level and a time level that rolls up
+ * to the one of the query and to the one of its dice. Merging the rows of several times is exact,
+ * since each call is at a single time, but pairs of a lower location level can not be merged, since
+ * a call would be counted once for each pair of phones of the same pair of users.
+ *
+ * Rows are keyed by packed triplets, so a view can only have levels of up to 2^21 members, which
+ * is checked before building any of them. Views are stored next to the csv files, and dropped when
+ * new rows are ingested.
+ */
+public class MaterializedViews {
+
+  public static final String[] LOCATION_LEVELS = {"phone", "user", "city", "country"};
+  public static final String[] TIME_LEVELS = {"timestamp", "day", "month", "year", "allTimes"};
+  public static final String ALL_TIMES = "allTimes";
+
+  private static final String FILE = "views";
+
+  // Views given as location:time levels separated by commas (i.e: "user:month,user:allTimes").
+  private final String specs;
+  private final List<View> views = new ArrayList<>();
+  // Values of the members of the levels of the views, by id.
+  private final Map<String, String[]> values = new HashMap<>();
+  // Id of the parent of each member of a time level, by level.
+  private final Map<String, int[]> timeParents = new HashMap<>();
+
+  private MaterializedViews(String specs) {
+    this.specs = specs;
+  }
+
+  /**
+   * Loads the views stored in the directory, or builds and stores them if they were not stored yet
+   * or other views were.
+   */
+  public static MaterializedViews open(JanusGraph graph, Path directory, String specs)
+      throws IOException {
+    MaterializedViews views = load(directory, specs);
+    if (views == null) {
+      long start = System.currentTimeMillis();
+      views = build(FactTable.extract(graph), specs);
+      views.save(directory);
+      System.out.println(String.format("Built views %s in %d ms", specs,
+          System.currentTimeMillis() - start));
+    }
+    return views;
+  }
+
+  /**
+   * Aggregates the calls of the table in each of the views.
+   */
+  public static MaterializedViews build(FactTable table, String specs) {
+    List<String[]> parsed = parse(specs);
+    for (String[] levels : parsed) {
+      int members = Math.max(table.levelSize(levels[0]),
+          levels[1].equals(ALL_TIMES) ? 1 : table.levelSize(levels[1]));
+      if (!TupleKeys.fits(3, members)) {
+        throw new IllegalArgumentException(String.format(
+            "View %s:%s has %d members in a level, more than its keys can pack", levels[0],
+            levels[1], members));
+      }
+    }
+    MaterializedViews views = new MaterializedViews(specs);
+    int finestTime = TIME_LEVELS.length - 1;
+    for (String[] levels : parsed) {
+      String location = levels[0];
+      String time = levels[1];
+      finestTime = Math.min(finestTime, timeIndex(time));
+
+      int[] locations = table.rollUp("phone", location);
+      int[] times = time.equals(ALL_TIMES) ? null : table.rollUp("timestamp", time);
+      GroupAccumulator groups = table.aggregate(table.all(), Aggregation.COUNT,
+          (fact, factGroups) -> {
+            int timeId = times == null ? 0 : times[table.time(fact)];
+            Combinations.forEach(table.members(fact, locations), 2,
+                pair -> factGroups.key(Dictionary.triplet(pair[0], pair[1], timeId)));
+          });
+      views.views.add(new View(location, time, groups));
+      views.values.computeIfAbsent(location, level -> levelValues(table, level));
+    }
+    // Time levels from the finest one of the views, to roll up and dice their rows.
+    for (int i = finestTime; i < TIME_LEVELS.length - 1; i++) {
+      String level = TIME_LEVELS[i];
+      views.values.put(level, levelValues(table, level));
+      if (i + 1 < TIME_LEVELS.length - 1) {
+        views.timeParents.put(level, table.rollUp(level, TIME_LEVELS[i + 1]));
+      }
+    }
+    return views;
+  }
+
+  /**
+   * Location and time levels of each of the views, failing if one of them is not known.
+   */
+  public static List<String[]> parse(String specs) {
+    List<String[]> parsed = new ArrayList<>();
+    for (String spec : specs.split(",")) {
+      String[] levels = spec.trim().split(":");
+      if (levels.length != 2 || !Arrays.asList(LOCATION_LEVELS).contains(levels[0])
+          || !Arrays.asList(TIME_LEVELS).contains(levels[1])) {
+        throw new IllegalArgumentException("Unknown view: " + spec);
+      }
+      parsed.add(levels);
+    }
+    return parsed;
+  }
+
+  private static String[] levelValues(FactTable table, String level) {
+    String[] levelValues = new String[table.levelSize(level)];
+    for (int id = 0; id < levelValues.length; id++) {
+      levelValues[id] = table.value(level, id);
+    }
+    return levelValues;
+  }
+
+  /**
+   * Loads the views stored in the directory, or returns null if there are none or they are not the
+   * given ones.
+   */
+  public static MaterializedViews load(Path directory, String specs) throws IOException {
+    Path file = directory.resolve(FILE);
+    if (!Files.exists(file)) {
+      return null;
+    }
+    try (DataInputStream in =
+        new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+      if (!in.readUTF().equals(specs)) {
+        return null;
+      }
+      MaterializedViews views = new MaterializedViews(specs);
+      for (int i = in.readInt(); i > 0; i--) {
+        String level = in.readUTF();
+        String[] levelValues = new String[in.readInt()];
+        for (int id = 0; id < levelValues.length; id++) {
+          levelValues[id] = in.readUTF();
+        }
+        views.values.put(level, levelValues);
+      }
+      for (int i = in.readInt(); i > 0; i--) {
+        String level = in.readUTF();
+        int[] parents = new int[in.readInt()];
+        for (int id = 0; id < parents.length; id++) {
+          parents[id] = in.readInt();
+        }
+        views.timeParents.put(level, parents);
+      }
+      for (int i = in.readInt(); i > 0; i--) {
+        views.views.add(View.readFrom(in));
+      }
+      return views;
+    }
+  }
+
+  /**
+   * Stores the views in the directory, replacing the previous ones atomically.
+   */
+  public void save(Path directory) throws IOException {
+    Path file = directory.resolve(FILE + ".tmp");
+    try (DataOutputStream out =
+        new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file)))) {
+      out.writeUTF(specs);
+      out.writeInt(values.size());
+      for (Map.Entry<String, String[]> entry : values.entrySet()) {
+        out.writeUTF(entry.getKey());
+        out.writeInt(entry.getValue().length);
+        for (String value : entry.getValue()) {
+          out.writeUTF(value);
+        }
+      }
+      out.writeInt(timeParents.size());
+      for (Map.Entry<String, int[]> entry : timeParents.entrySet()) {
+        out.writeUTF(entry.getKey());
+        out.writeInt(entry.getValue().length);
+        for (int parent : entry.getValue()) {
+          out.writeInt(parent);
+        }
+      }
+      out.writeInt(views.size());
+      for (View view : views) {
+        view.writeTo(out);
+      }
+    }
+    Files.move(file, directory.resolve(FILE), StandardCopyOption.REPLACE_EXISTING,
+        StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  public static void clear(Path directory) throws IOException {
+    Files.deleteIfExists(directory.resolve(FILE));
+  }
+
+  /**
+   * Aggregates the pairs of members of the location level by member of the time level, only with
+   * the calls at the member of the dice level with the given value, if any. Groups are keyed by
+   * {@link Dictionary#triplet(int, int, int)} of the ids of the pair, in order, and of the time,
+   * which is 0 for "allTimes".
+   *
+   * Returns null if no view can answer the query.
+   */
+  public GroupAccumulator query(String location, String time, String diceLevel, String diceValue,
+      Aggregation agg) {
+    GroupAccumulator groups = new GroupAccumulator(agg);
+    // Rows keep the parts of the states, but not their sketches.
+    if (groups.keepsStates()) {
+      return null;
+    }
+    View view = route(location, time, diceLevel);
+    if (view == null) {
+      return null;
+    }
+    System.out.println(String.format("Answering from view %s:%s (%d rows)", view.location,
+        view.time, view.size()));
+    int[] timeIds = timeMapping(view.time, time);
+    int[] diceIds = diceLevel == null ? null : timeMapping(view.time, diceLevel);
+    int diceId = diceLevel == null ? -1 : Arrays.binarySearch(values.get(diceLevel), diceValue);
+    for (int row = 0; row < view.size(); row++) {
+      long key = view.keys[row];
+      int timeId = Dictionary.tripletId(key, 2);
+      if (diceIds != null && diceIds[timeId] != diceId) {
+        continue;
+      }
+      groups.key(Dictionary.triplet(Dictionary.tripletId(key, 0), Dictionary.tripletId(key, 1),
+          timeIds[timeId]));
+      groups.addCall(view.counts[row], view.sums[row], view.mins[row], view.maxs[row],
+          view.sumsOfSquares[row]);
+    }
+    return groups;
+  }
+
+  public String value(String level, int id) {
+    return values.get(level)[id];
+  }
+
+  /**
+   * Smallest view that can answer a query, or null if there is none.
+   */
+  private View route(String location, String time, String diceLevel) {
+    View best = null;
+    for (View view : views) {
+      if (view.location.equals(location) && timeIndex(view.time) <= timeIndex(time)
+          && (diceLevel == null || timeIndex(view.time) <= timeIndex(diceLevel))
+          && (best == null || view.size() < best.size())) {
+        best = view;
+      }
+    }
+    return best;
+  }
+
+  /**
+   * Id at the "top" time level of each member of the "bottom" one.
+   */
+  private int[] timeMapping(String bottom, String top) {
+    int[] mapping = new int[bottom.equals(ALL_TIMES) ? 1 : values.get(bottom).length];
+    if (top.equals(ALL_TIMES)) {
+      return mapping;
+    }
+    for (int i = 0; i < mapping.length; i++) {
+      mapping[i] = i;
+    }
+    for (int level = timeIndex(bottom); level < timeIndex(top); level++) {
+      int[] parents = timeParents.get(TIME_LEVELS[level]);
+      for (int i = 0; i < mapping.length; i++) {
+        mapping[i] = parents[mapping[i]];
+      }
+    }
+    return mapping;
+  }
+
+  private static int timeIndex(String level) {
+    int index = Arrays.asList(TIME_LEVELS).indexOf(level);
+    if (index < 0) {
+      throw new IllegalArgumentException("Unknown time level: " + level);
+    }
+    return index;
+  }
+
+  /**
+   * Rows of a group-by, as columns.
+   */
+  private static class View {
+
+    private final String location;
+    private final String time;
+    private final long[] keys;
+    private final long[] counts;
+    private final double[] sums;
+    private final double[] mins;
+    private final double[] maxs;
+    private final double[] sumsOfSquares;
+
+    private View(String location, String time, int size) {
+      this.location = location;
+      this.time = time;
+      keys = new long[size];
+      counts = new long[size];
+      sums = new double[size];
+      mins = new double[size];
+      maxs = new double[size];
+      sumsOfSquares = new double[size];
+    }
+
+    View(String location, String time, GroupAccumulator groups) {
+      this(location, time, groups.size());
+      int[] row = {0};
+      groups.forEachState((key, state) -> {
+        keys[row[0]] = key;
+        counts[row[0]] = state.count();
+        sums[row[0]] = state.sum();
+        mins[row[0]] = state.min();
+        maxs[row[0]] = state.max();
+        sumsOfSquares[row[0]] = state.sumOfSquares();
+        row[0]++;
+      });
+    }
+
+    int size() {
+      return keys.length;
+    }
+
+    static View readFrom(DataInputStream in) throws IOException {
+      View view = new View(in.readUTF(), in.readUTF(), in.readInt());
+      for (int row = 0; row < view.size(); row++) {
+        view.keys[row] = in.readLong();
+        view.counts[row] = in.readLong();
+        view.sums[row] = in.readDouble();
+        view.mins[row] = in.readDouble();
+        view.maxs[row] = in.readDouble();
+        view.sumsOfSquares[row] = in.readDouble();
+      }
+      return view;
+    }
+
+    void writeTo(DataOutputStream out) throws IOException {
+      out.writeUTF(location);
+      out.writeUTF(time);
+      out.writeInt(size());
+      for (int row = 0; row < size(); row++) {
+        out.writeLong(keys[row]);
+        out.writeLong(counts[row]);
+        out.writeDouble(sums[row]);
+        out.writeDouble(mins[row]);
+        out.writeDouble(maxs[row]);
+        out.writeDouble(sumsOfSquares[row]);
+      }
+    }
+  }
+}
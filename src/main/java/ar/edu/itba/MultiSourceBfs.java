@@ -0,0 +1,81 @@
+package ar.edu.itba;
+
+import ar.edu.itba.QueryFilters.PhoneFilter;
+import java.util.Arrays;
+
+/**
+ * Distances between every pair of phones of a {@link PhoneGraph}, by BFS from 64 sources at a time.
+ * Each phone keeps a word with a bit per source of the batch, so a sweep over the adjacency lists
+ * advances the frontiers of the 64 sources at once, instead of once per source.
+ *
+ * The graph is unweighted, so distances are the ones of Floyd-Warshall, in O(V * E / 64) instead
+ * of O(V^3).
+ */
+public class MultiSourceBfs {
+
+  private static final int BATCH_SIZE = Long.SIZE;
+
+  private final PhoneGraph phones;
+
+  public MultiSourceBfs(PhoneGraph phones) {
+    this.phones = phones;
+  }
+
+  /**
+   * Gives the distance from every phone to each phone it reaches, itself included at distance 0,
+   * only for the pairs of phones the filter applies to, if any.
+   */
+  public void forEachDistance(PhoneFilter filter, DistanceConsumer consumer) {
+    int size = phones.size();
+    int[] offsets = phones.offsets();
+    int[] neighbors = phones.neighbors();
+    // Sources of the batch that reached each phone, and the ones that reached it at the last level.
+    long[] seen = new long[size];
+    long[] frontier = new long[size];
+    long[] next = new long[size];
+    for (int first = 0; first < size; first += BATCH_SIZE) {
+      int batchSize = Math.min(BATCH_SIZE, size - first);
+      Arrays.fill(seen, 0);
+      Arrays.fill(frontier, 0);
+      for (int bit = 0; bit < batchSize; bit++) {
+        seen[first + bit] = 1L << bit;
+        frontier[first + bit] = 1L << bit;
+        if (filter == null || filter.test(phones, first + bit, first + bit)) {
+          consumer.accept(first + bit, first + bit, 0);
+        }
+      }
+      for (int distance = 1;; distance++) {
+        boolean reached = false;
+        for (int phone = 0; phone < size; phone++) {
+          long sources = 0;
+          for (int i = offsets[phone]; i < offsets[phone + 1]; i++) {
+            sources |= frontier[neighbors[i]];
+          }
+          sources &= ~seen[phone];
+          next[phone] = sources;
+          if (sources == 0) {
+            continue;
+          }
+          reached = true;
+          seen[phone] |= sources;
+          for (; sources != 0; sources &= sources - 1) {
+            int source = first + Long.numberOfTrailingZeros(sources);
+            if (filter == null || filter.test(phones, source, phone)) {
+              consumer.accept(source, phone, distance);
+            }
+          }
+        }
+        if (!reached) {
+          break;
+        }
+        long[] previous = frontier;
+        frontier = next;
+        next = previous;
+      }
+    }
+  }
+
+  public interface DistanceConsumer {
+    void accept(int source, int target, int distance);
+  }
+}
@@ -0,0 +1,84 @@
+package ar.edu.itba;
+
+/**
+ * Open addressing hash map from objects to long, that avoids boxing the values.
+ */
+public class ObjectLongMap<K> {
+
+  private Object[] keys;
+  private long[] values;
+  private int size;
+
+  public ObjectLongMap() {
+    this(16);
+  }
+
+  public ObjectLongMap(int expectedSize) {
+    keys = new Object[LongLongMap.capacityFor(expectedSize)];
+    values = new long[keys.length];
+  }
+
+  /**
+   * Returns the value of the key, or defaultValue if the key is not in the map.
+   */
+  public long get(K key, long defaultValue) {
+    int slot = find(key);
+    return keys[slot] != null ? values[slot] : defaultValue;
+  }
+
+  public boolean containsKey(K key) {
+    return keys[find(key)] != null;
+  }
+
+  public void put(K key, long value) {
+    int slot = find(key);
+    if (keys[slot] == null) {
+      keys[slot] = key;
+      size++;
+    }
+    values[slot] = value;
+    if (size * 2 > keys.length) {
+      rehash(keys.length * 2);
+    }
+  }
+
+  public int size() {
+    return size;
+  }
+
+  @SuppressWarnings("unchecked")
+  public void forEach(Consumer<K> consumer) {
+    for (int i = 0; i < keys.length; i++) {
+      if (keys[i] != null) {
+        consumer.accept((K) keys[i], values[i]);
+      }
+    }
+  }
+
+  public interface Consumer<K> {
+    void accept(K key, long value);
+  }
+
+  private int find(Object key) {
+    int mask = keys.length - 1;
+    int slot = LongLongMap.hash(key.hashCode()) & mask;
+    while (keys[slot] != null && !keys[slot].equals(key)) {
+      slot = (slot + 1) & mask;
+    }
+    return slot;
+  }
+
+  private void rehash(int capacity) {
+    Object[] oldKeys = keys;
+    long[] oldValues = values;
+    keys = new Object[capacity];
+    values = new long[capacity];
+    for (int i = 0; i < oldKeys.length; i++) {
+      if (oldKeys[i] != null) {
+        int slot = find(oldKeys[i]);
+        keys[slot] = oldKeys[i];
+        values[slot] = oldValues[i];
+      }
+    }
+  }
+}
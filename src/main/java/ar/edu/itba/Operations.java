@@ -1,29 +1,84 @@
 package ar.edu.itba;
 
-import java.util.HashSet;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
 import java.util.Iterator;
 import java.util.List;
-import java.util.Set;
-import java.util.Spliterators;
 import java.util.stream.DoubleStream;
+import java.util.stream.IntStream;
+import java.util.stream.LongStream;
 import java.util.stream.Stream;
-import java.util.stream.StreamSupport;
 
 import org.apache.tinkerpop.gremlin.process.traversal.dsl.graph.GraphTraversal;
 import org.apache.tinkerpop.gremlin.structure.Direction;
 import org.apache.tinkerpop.gremlin.structure.Edge;
 import org.apache.tinkerpop.gremlin.structure.Vertex;
-import org.apache.tinkerpop.gremlin.structure.VertexProperty;
 import org.janusgraph.core.JanusGraph;
 import org.javatuples.Pair;
 
 public class Operations {
 
+    private static final int CALLS_BATCH_SIZE = 1000;
+    
+    // Whether an operation of this process changed the stored graph, see modifiedGraph().
+    private static volatile boolean modifiedGraph;
+
     private final JanusGraph graph;
+    // Built on the first dice.
+    private FactIndex facts;
+    // Facts kept by the dices, or null if there was none.
+    private BitSet kept;
 
     public Operations(JanusGraph graph) {
         this.graph = graph;
     }
+    
+    /**
+     * Whether climb(), minimize() or aggregate() changed the stored graph in this process. Vertices
+     * were then removed or rewired, so the graph and what is stored next to the csv files (the
+     * checkpoint, dictionary, views and phone snapshot) no longer match the data.
+     */
+    public static boolean modifiedGraph() {
+    	return modifiedGraph;
+    }
+    
+    /**
+     * Whether the call was kept by the dices applied.
+     */
+    public boolean isKept(Vertex call) {
+    	if (kept == null) {
+    		return true;
+    	}
+    	int position = facts.positionOf(call);
+    	return position >= 0 && kept.get(position);
+    }
+    
+    /**
+     * Calls kept by the dices applied. Once diced, only the kept calls are looked up, by id.
+     */
+    public Stream<Vertex> calls() {
+    	if (kept == null) {
+    		return graph.traversal().V().has("type", "call").toStream();
+    	}
+    	int[] positions = kept.stream().toArray();
+    	return IntStream.range(0, (positions.length + CALLS_BATCH_SIZE - 1) / CALLS_BATCH_SIZE)
+    			.mapToObj(batch -> Arrays.stream(positions, batch * CALLS_BATCH_SIZE,
+    					Math.min(positions.length, (batch + 1) * CALLS_BATCH_SIZE))
+    					.mapToObj(facts::idAt).toArray())
+    			.flatMap(ids -> graph.traversal().V(ids).toStream());
+    }
+
+    /**
+     * Vertex ids of the calls kept by the dices applied, read as the stream is consumed.
+     */
+    public LongStream callIds() {
+    	if (kept == null) {
+    		return graph.traversal().V().has("type", "call").id().toStream()
+    				.mapToLong(id -> ((Number) id).longValue());
+    	}
+    	return kept.stream().mapToLong(facts::idAt);
+    }
 
     /**
      * Replaces all nodes with "bottom" label to the corresponding node with "top" label.
@@ -33,6 +88,7 @@ public class Operations {
      */
     public void climb(String bottom, String top) {
     	System.out.println(String.format("Climbing from %s to %s", bottom, top));
+    	modifiedGraph = true;
     	// Find all vertices with "bottom" label.
         GraphTraversal<Vertex, Vertex> bottomTraversal = graph.traversal().V().has("type", bottom);
         GraphTraversal<Vertex, Vertex> auxTraversal = bottomTraversal.asAdmin().clone();
@@ -83,58 +139,8 @@ public class Operations {
      */
     public void minimize() {
     	System.out.println("Minimizing...");
-    	Stream<Vertex> calls = graph.traversal().V().has("type", "call").toStream();
-    	// Iterate over all the calls to try to find those that have all same participants, caller and time.
-    	calls.forEach(call -> {
-    		// This condition prevents from finding matches for a call that is a match of a previously visited call.
-    		if ((boolean) call.property("visited").value()) {
-    			call.remove();
-    			return;
-    		}
-    		call.property("visited", true);
-    		// Find all calls that occurred at the same time as "call".
-    		Stream<Vertex> otherCalls = graph.traversal().V(call.id()).out("atTime").in().has("type", "call").toStream();
-    		otherCalls.forEach(otherCall -> {
-    			if ((boolean) otherCall.property("visited").value()) {
-        			return;
-        		}
-    			// Iterate over all the edges of "call" and make sure that there is a "unique"
-    			// edge that is exactly the same that leaves from "otherCall". Mark that edge as used
-    			// to enforce that the cardinality of edges is the same.
-    			Iterator<Edge> edges = call.edges(Direction.OUT);
-    			Set<Edge> usedEdges = new HashSet<Edge>();
-    			boolean hasMatch = true;
-    			while (edges.hasNext() && hasMatch) {
-    				hasMatch = false;
-    				Edge edge = edges.next();
-    				// Make sure both edges have the same label.
-    				Iterator<Edge> neighEdges = graph.traversal().V(otherCall.id()).outE(edge.label());
-    				while (neighEdges.hasNext() && !hasMatch) {
-    					Edge neighEdge = neighEdges.next();
-    					// If both edges in-vertex has the same value, then it's a match.
-    					if (!usedEdges.contains(neighEdge)) {
-    						hasMatch = neighEdge.inVertex().value("value")
-    								.equals(edge.inVertex().value("value"));
-    						if (hasMatch) {
-    							usedEdges.add(neighEdge);
-    						}
-    					}
-    				}
-    			}
-    			// Make sure that there are no spare edges in "otherCall" that haven't been matched.
-    			Long count = graph.traversal().V(otherCall.id()).out().count().next();
-    			if (hasMatch && count == usedEdges.size()) {
-    				// Mark "otherCall" as visited so that we don't find matches for this one, and add
-    				// the duration to "call".
-    				otherCall.property("visited", true);
-    				call.property("duration", otherCall.value("duration"));
-    			}
-    		});
-    	});
-    	
-    	// Remove the visited mark.
-    	calls = graph.traversal().V().has("type", "call").toStream();
-    	calls.forEach(call -> call.property("visited", false));
+    	modifiedGraph = true;
+    	new CallMerger(graph, this::isKept).merge();
     }
     
     /**
@@ -142,24 +148,11 @@ public class Operations {
      */
     public void aggregate(Aggregation agg) {
     	System.out.println(String.format("Aggregating: %s", agg.name()));
+    	modifiedGraph = true;
     	Stream<Vertex> calls = graph.traversal().V().has("type", "call").toStream();
     	
-    	// Iterate over each call and aggregate over the array of durations.
-    	calls.forEach(call -> {
-    		Iterable<Double> durations = () -> call.values("duration");
-    		DoubleStream stream = StreamSupport.stream(durations.spliterator(), true).mapToDouble(x -> x);
-    		
-    		// Remove the existing values of the duration array property.
-    		Iterator<VertexProperty<Double>> vpIt = call.properties("duration");
-    		while(vpIt.hasNext()) {
-    			vpIt.next().remove();
-    		}
-    		
-    		// Get the new duration value based on the corresponding aggregation.
-    		double value = agg(stream, agg);
-    		// Replace the duration value with the one after the aggregation.
-    		call.property("duration", value);
-    	});
+    	// Replace the state of each call with the state of the single aggregated value.
+    	calls.filter(this::isKept).forEach(call -> AggregateState.of(agg.of(AggregateState.of(call))).write(call));
     }
     
     /**
@@ -194,46 +187,83 @@ public class Operations {
      * Keeps only facts that are related indirectly to vertices with label "label" only with value "value".
      */
     public void diceEquals(String label, String value) {
-    	System.out.println(String.format("Dice %s = '%s'", label, value));
-    	// Find all vertices with the label and not the value.
-    	Stream<Vertex> verticesToRemove = graph.traversal().V().has("type", label).toStream()
-    		.filter(v -> !value.equals(v.value("value")));
-    	
-    	removeIns(verticesToRemove);
+    	dice(DicePredicate.equals(label, value));
     }
     
     /**
      * Keeps only facts that are not related indirectly to vertices with label "label" only with value "value".
      */
     public void diceNotEquals(String label, String value) {
-    	System.out.println(String.format("Dice %s <> '%s'", label, value));
-    	// Find all vertices with the label and the value.
-    	Stream<Vertex> verticesToRemove = graph.traversal().V().has("type", label)
-    			.has("value", value).toStream();
-    	
-    	removeIns(verticesToRemove);
+    	dice(DicePredicate.notEquals(label, value));
     }
     
     /**
-     * Removes recursively all the in-vertices of the stream of vertices received. 
+     * Keeps only facts that satisfy the predicate. Facts are not removed from the graph, but left out
+     * of later roll ups and aggregations.
      */
-    private void removeIns(Stream<Vertex> vertices) {
-    	Iterator<Vertex> it = vertices.iterator();
-    	if (!it.hasNext()) {
-    		return;
+    public void dice(DicePredicate predicate) {
+    	System.out.println(String.format("Dice %s", predicate));
+    	dice(facts(predicate));
+    }
+    
+    /**
+     * Facts that satisfy the predicate, by their position in the fact index.
+     */
+    public BitSet facts(DicePredicate predicate) {
+    	return predicate.evaluate(graph, facts());
+    }
+    
+    /**
+     * Keeps only the given facts among the ones already kept.
+     */
+    private void dice(BitSet facts) {
+    	if (kept == null) {
+    		kept = facts;
+    	} else {
+    		kept.and(facts);
+    	}
+    	System.out.println(String.format("Kept %d of %d facts", kept.cardinality(), this.facts.size()));
+    }
+    
+    private FactIndex facts() {
+    	if (facts == null) {
+    		facts = new FactIndex(graph);
+    	}
+    	return facts;
+    }
+    
+    /**
+     * Aggregates over the durations of all the calls, merging their states. For DISTINCT_MEMBERS,
+     * counts the members the calls point to, at the level they are rolled up to.
+     */
+    public static double agg(Collection<Vertex> calls, Aggregation agg) {
+    	AggregateState state = new AggregateState();
+    	for (Vertex call : calls) {
+    		state.merge(stateOf(call, agg));
+    	}
+    	return agg.of(state);
+    }
+    
+    /**
+     * State of the call, with its members if the aggregation needs them.
+     */
+    public static AggregateState stateOf(Vertex call, Aggregation agg) {
+    	return stateOf(call, agg, null);
+    }
+    
+    /**
+     * State of the call, with its members rolled up through the view, if any, if the aggregation
+     * needs them.
+     */
+    public static AggregateState stateOf(Vertex call, Aggregation agg, RollUpView view) {
+    	AggregateState state = AggregateState.of(call);
+    	if (agg == Aggregation.DISTINCT_MEMBERS) {
+    		call.edges(Direction.OUT, "integratedBy", "calledBy").forEachRemaining(edge -> {
+    			Object memberId = edge.inVertex().id();
+    			state.addMember(((Number) (view == null ? memberId : view.map(memberId))).longValue());
+    		});
     	}
-    	vertices = StreamSupport.stream(Spliterators.spliteratorUnknownSize(it, 0), false);
-    	vertices.forEach(v -> {
-    		try {
-	    		Iterable<Edge> edges = () -> v.edges(Direction.IN);
-	    		Stream<Vertex> outVertices = StreamSupport.stream(edges.spliterator(), true)
-	    				.map(edge -> edge.outVertex());
-    			v.remove();
-    			removeIns(outVertices);
-    		} catch (IllegalStateException e) {
-    			// Vertex was already removed.
-    		}
-    	});
+    	return state;
     }
     
     public static double agg(DoubleStream stream, Aggregation agg) {
@@ -0,0 +1,126 @@
+package ar.edu.itba;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PrimitiveIterator;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.stream.LongStream;
+import org.apache.tinkerpop.gremlin.structure.Vertex;
+import org.janusgraph.core.JanusGraph;
+
+/**
+ * Aggregates a scan of calls on a pool of workers. Ids are read by the calling thread and handed to
+ * the workers in batches as they are read, so that looking up the calls overlaps with scanning the
+ * ids instead of waiting for all of them. Each worker reads its batches in its own transaction into
+ * its own {@link GroupAccumulator}, and the accumulators are merged at the end.
+ *
+ * Workers take batches from a queue instead of splitting ranges of ids on a fork-join pool, since
+ * the ids are a stream of unknown size and there is no range to split until all of them were read.
+ * A worker done with its batch takes the next one, which balances the load as stealing would.
+ *
+ * Results are the ones of a sequential scan as long as the sums are exact, since the calls are
+ * added in a different order. This holds for durations loaded as whole seconds, whose sums stay
+ * below 2^53; fractional durations could change the last digits of sums and averages.
+ */
+public class ParallelScan {
+
+  // Calls looked up by id at once, and batches waiting for a worker.
+  private static final int BATCH_SIZE = 1000;
+  private static final int QUEUE_SIZE = 4;
+
+  private final JanusGraph graph;
+  private final int workers;
+
+  public ParallelScan(JanusGraph graph, int workers) {
+    this.graph = graph;
+    this.workers = workers;
+  }
+
+  /**
+   * Adds each call to the groups given by "keysOf". The ids are consumed as they are aggregated.
+   */
+  public GroupAccumulator aggregate(LongStream callIds, Aggregation agg,
+      BiConsumer<Vertex, GroupAccumulator> keysOf) {
+    BlockingQueue<long[]> queue = new ArrayBlockingQueue<>(QUEUE_SIZE * workers);
+    ExecutorService executor = Executors.newFixedThreadPool(workers);
+    List<Future<GroupAccumulator>> futures = new ArrayList<>();
+    for (int i = 0; i < workers; i++) {
+      futures.add(executor.submit(() -> scan(queue, agg, keysOf)));
+    }
+    try {
+      long[] batch = new long[BATCH_SIZE];
+      int size = 0;
+      for (PrimitiveIterator.OfLong it = callIds.iterator(); it.hasNext();) {
+        batch[size++] = it.nextLong();
+        if (size == BATCH_SIZE) {
+          dispatch(queue, batch, futures);
+          batch = new long[BATCH_SIZE];
+          size = 0;
+        }
+      }
+      if (size > 0) {
+        dispatch(queue, Arrays.copyOf(batch, size), futures);
+      }
+      // An empty batch stops each worker.
+      for (int i = 0; i < workers; i++) {
+        dispatch(queue, new long[0], futures);
+      }
+      GroupAccumulator groups = futures.get(0).get();
+      for (int i = 1; i < workers; i++) {
+        groups.merge(futures.get(i).get());
+      }
+      return groups;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while scanning calls", e);
+    } catch (ExecutionException e) {
+      throw new IllegalStateException("Scan worker failed", e.getCause());
+    } finally {
+      executor.shutdownNow();
+      graph.tx().rollback();
+    }
+  }
+
+  private GroupAccumulator scan(BlockingQueue<long[]> queue, Aggregation agg,
+      BiConsumer<Vertex, GroupAccumulator> keysOf) throws InterruptedException {
+    GroupAccumulator groups = new GroupAccumulator(agg);
+    try {
+      for (long[] batch = queue.take(); batch.length > 0; batch = queue.take()) {
+        Object[] ids = Arrays.stream(batch).boxed().toArray();
+        graph.traversal().V(ids).toStream().forEach(call -> {
+          keysOf.accept(call, groups);
+          groups.addCall(call);
+        });
+        // Transactions are bound to the worker thread, so read calls are not kept.
+        graph.tx().rollback();
+      }
+    } finally {
+      graph.tx().rollback();
+    }
+    return groups;
+  }
+
+  /**
+   * Hands a batch to the workers, failing if one of them died instead of blocking forever on the
+   * full queue.
+   */
+  private static void dispatch(BlockingQueue<long[]> queue, long[] batch,
+      List<Future<GroupAccumulator>> futures) throws InterruptedException, ExecutionException {
+    while (!queue.offer(batch, 1, TimeUnit.SECONDS)) {
+      for (Future<GroupAccumulator> future : futures) {
+        if (future.isDone()) {
+          future.get();
+          throw new IllegalStateException("Scan worker stopped unexpectedly");
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,515 @@
+package ar.edu.itba;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.IntStream;
+import org.apache.tinkerpop.gremlin.structure.Vertex;
+import org.janusgraph.core.JanusGraph;
+
+/**
+ * Snapshot of the phones that took part in calls together, as adjacency lists in compressed sparse
+ * row form: the neighbors of phone i are neighbors[offsets[i]] to neighbors[offsets[i + 1] - 1], in
+ * order and without repetitions. Phones have dense ids in the order of their values, as the ones of
+ * the {@link Dictionary}.
+ *
+ * It is extracted in a single scan of the "integratedBy" edges and stored next to the csv files,
+ * so that path algorithms run over arrays instead of traversing the graph for each phone. The
+ * {@link Attribute}s of each phone are extracted with it as columns of ids, so results are built
+ * and filtered without reading the graph either.
+ */
+public class PhoneGraph {
+
+  private static final String FILE = "phones.csr";
+  // Changes with the format of the file, so that older snapshots are extracted again.
+  private static final int VERSION = 3;
+
+  private final long[] vertexIds;
+  private final String[] values;
+  // Phone vertex id to its id.
+  private final LongLongMap ids = new LongLongMap();
+  private int[] offsets;
+  private int[] neighbors;
+  // Id of the member of each attribute of each phone within its level, by attribute.
+  private final int[][] attributes = new int[Attribute.values().length][];
+  // Values of the users, by id in the order of the values, including the ones without phones.
+  private String[] userNames;
+
+  private PhoneGraph(int size) {
+    vertexIds = new long[size];
+    values = new String[size];
+  }
+
+  /**
+   * Loads the snapshot stored in the directory, or extracts and stores it if it was not stored yet.
+   */
+  public static PhoneGraph open(JanusGraph graph, Path directory) throws IOException {
+    PhoneGraph phones = load(directory);
+    if (phones == null) {
+      phones = extract(graph);
+      phones.save(directory);
+    }
+    return phones;
+  }
+
+  /**
+   * Reads the phones and the participants of every call from the graph.
+   */
+  public static PhoneGraph extract(JanusGraph graph) {
+    long start = System.currentTimeMillis();
+    List<Vertex> phoneVertices = sortedMembers(graph, "phone");
+    PhoneGraph phones = new PhoneGraph(phoneVertices.size());
+    for (int i = 0; i < phones.size(); i++) {
+      phones.vertexIds[i] = vertexId(phoneVertices.get(i));
+      phones.values[i] = phoneVertices.get(i).value("value");
+      phones.ids.put(phones.vertexIds[i], i);
+    }
+    phones.extractAttributes(graph);
+
+    // Participants of each call come one after the other.
+    NeighborSets neighbors = new NeighborSets(phones.size());
+    graph.traversal().V().has("type", "call").outE("integratedBy").toStream().forEach(edge ->
+        neighbors.addParticipant(vertexId(edge.outVertex()), phones.id(vertexId(edge.inVertex()))));
+    neighbors.endCall();
+    graph.tx().rollback();
+
+    phones.buildRows(neighbors);
+    System.out.println(String.format("Extracted %d phones and %d neighbors in %d ms",
+        phones.size(), phones.neighbors.length, System.currentTimeMillis() - start));
+    return phones;
+  }
+
+  /**
+   * Snapshot of "size" phones with the given phones taking part in each call, and no attributes,
+   * i.e: to test the path algorithms without a graph.
+   */
+  static PhoneGraph fromCalls(int size, int[][] calls) {
+    PhoneGraph phones = new PhoneGraph(size);
+    NeighborSets neighbors = new NeighborSets(size);
+    for (int call = 0; call < calls.length; call++) {
+      for (int phone : calls[call]) {
+        neighbors.addParticipant(call, phone);
+      }
+    }
+    neighbors.endCall();
+    phones.buildRows(neighbors);
+    return phones;
+  }
+
+  /**
+   * Reads the parents of the phones, and the ancestors of the other attributes through them.
+   */
+  private void extractAttributes(JanusGraph graph) {
+    Map<Attribute, LongLongMap> memberIds = new EnumMap<>(Attribute.class);
+    for (Attribute attribute : Attribute.values()) {
+      List<Vertex> members = sortedMembers(graph, attribute.level);
+      memberIds.put(attribute, idsOf(members));
+      attributes[attribute.ordinal()] = new int[size()];
+      if (attribute == Attribute.USER) {
+        userNames = new String[members.size()];
+        for (int user = 0; user < userNames.length; user++) {
+          userNames[user] = members.get(user).value("value");
+        }
+      }
+    }
+
+    graph.traversal().V().has("type", "phone").outE("extendsFrom").toStream().forEach(edge -> {
+      int phone = id(vertexId(edge.outVertex()));
+      long parent = vertexId(edge.inVertex());
+      for (Attribute attribute : Attribute.values()) {
+        if (attribute.through == null && memberIds.get(attribute).containsKey(parent)) {
+          attributes[attribute.ordinal()][phone] = (int) memberIds.get(attribute).get(parent, -1);
+        }
+      }
+    });
+    // Attributes are declared after the ones they are reached through.
+    for (Attribute attribute : Attribute.values()) {
+      if (attribute.through == null) {
+        continue;
+      }
+      LongLongMap throughIds = memberIds.get(attribute.through);
+      LongLongMap ids = memberIds.get(attribute);
+      int[] parents = new int[throughIds.size()];
+      graph.traversal().V().has("type", attribute.through.level).outE("extendsFrom").toStream()
+          .forEach(edge -> {
+            long parent = vertexId(edge.inVertex());
+            if (ids.containsKey(parent)) {
+              parents[(int) throughIds.get(vertexId(edge.outVertex()), -1)] =
+                  (int) ids.get(parent, -1);
+            }
+          });
+      int[] through = attributes[attribute.through.ordinal()];
+      int[] column = attributes[attribute.ordinal()];
+      for (int phone = 0; phone < size(); phone++) {
+        column[phone] = parents[through[phone]];
+      }
+    }
+  }
+
+  private static List<Vertex> sortedMembers(JanusGraph graph, String level) {
+    List<Vertex> members = graph.traversal().V().has("type", level).toList();
+    members.sort(Comparator.comparing(member -> member.<String>value("value")));
+    return members;
+  }
+
+  /**
+   * Position of each member by vertex id.
+   */
+  private static LongLongMap idsOf(List<Vertex> members) {
+    LongLongMap memberIds = new LongLongMap(members.size());
+    for (int id = 0; id < members.size(); id++) {
+      memberIds.put(vertexId(members.get(id)), id);
+    }
+    return memberIds;
+  }
+
+  private static long vertexId(Vertex vertex) {
+    return ((Number) vertex.id()).longValue();
+  }
+
+  /**
+   * Lays out the neighbors of each phone one after the other, in order.
+   */
+  private void buildRows(NeighborSets sets) {
+    // Arrays can not quite reach Integer.MAX_VALUE elements.
+    if (sets.total > Integer.MAX_VALUE - 8) {
+      throw new IllegalStateException("Too many neighbors for a snapshot: " + sets.total);
+    }
+    offsets = new int[size() + 1];
+    neighbors = new int[(int) sets.total];
+    int size = 0;
+    for (int phone = 0; phone < size(); phone++) {
+      offsets[phone] = size;
+      int[] set = sets.sets[phone];
+      if (set == null) {
+        continue;
+      }
+      for (int neighbor : set) {
+        if (neighbor != NeighborSets.EMPTY) {
+          neighbors[size++] = neighbor;
+        }
+      }
+      Arrays.sort(neighbors, offsets[phone], size);
+      // Each set is dropped once laid out, so both are not kept whole at once.
+      sets.sets[phone] = null;
+    }
+    offsets[size()] = size;
+  }
+
+  /**
+   * Loads the snapshot stored in the directory, or returns null if there is none.
+   */
+  public static PhoneGraph load(Path directory) throws IOException {
+    Path file = directory.resolve(FILE);
+    if (!Files.exists(file)) {
+      return null;
+    }
+    try (DataInputStream in =
+        new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+      if (in.readInt() != VERSION) {
+        return null;
+      }
+      PhoneGraph phones = new PhoneGraph(in.readInt());
+      for (int i = 0; i < phones.size(); i++) {
+        phones.vertexIds[i] = in.readLong();
+        phones.values[i] = in.readUTF();
+        phones.ids.put(phones.vertexIds[i], i);
+      }
+      // Attributes declared after the snapshot was stored are not in it.
+      if (in.readInt() != Attribute.values().length) {
+        return null;
+      }
+      for (Attribute attribute : Attribute.values()) {
+        if (!in.readUTF().equals(attribute.name())) {
+          return null;
+        }
+        int[] column = new int[phones.size()];
+        for (int i = 0; i < column.length; i++) {
+          column[i] = in.readInt();
+        }
+        phones.attributes[attribute.ordinal()] = column;
+      }
+      phones.userNames = new String[in.readInt()];
+      for (int user = 0; user < phones.userNames.length; user++) {
+        phones.userNames[user] = in.readUTF();
+      }
+      phones.offsets = new int[phones.size() + 1];
+      for (int i = 0; i < phones.offsets.length; i++) {
+        phones.offsets[i] = in.readInt();
+      }
+      phones.neighbors = new int[phones.offsets[phones.size()]];
+      for (int i = 0; i < phones.neighbors.length; i++) {
+        phones.neighbors[i] = in.readInt();
+      }
+      return phones;
+    }
+  }
+
+  /**
+   * Stores the snapshot in the directory, replacing the previous one atomically.
+   */
+  public void save(Path directory) throws IOException {
+    Path file = directory.resolve(FILE + ".tmp");
+    try (DataOutputStream out =
+        new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file)))) {
+      out.writeInt(VERSION);
+      out.writeInt(size());
+      for (int i = 0; i < size(); i++) {
+        out.writeLong(vertexIds[i]);
+        out.writeUTF(values[i]);
+      }
+      out.writeInt(attributes.length);
+      for (Attribute attribute : Attribute.values()) {
+        out.writeUTF(attribute.name());
+        for (int id : attributes[attribute.ordinal()]) {
+          out.writeInt(id);
+        }
+      }
+      out.writeInt(userNames.length);
+      for (String userName : userNames) {
+        out.writeUTF(userName);
+      }
+      for (int offset : offsets) {
+        out.writeInt(offset);
+      }
+      for (int neighbor : neighbors) {
+        out.writeInt(neighbor);
+      }
+    }
+    Files.move(file, directory.resolve(FILE), StandardCopyOption.REPLACE_EXISTING,
+        StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  public static void clear(Path directory) throws IOException {
+    Files.deleteIfExists(directory.resolve(FILE));
+  }
+
+  public int size() {
+    return vertexIds.length;
+  }
+
+  /**
+   * Start of the neighbors of each phone in {@link #neighbors()}, with the end of the last one at
+   * the end. It must not be modified.
+   */
+  public int[] offsets() {
+    return offsets;
+  }
+
+  /**
+   * Neighbors of every phone, one after the other. It must not be modified.
+   */
+  public int[] neighbors() {
+    return neighbors;
+  }
+
+  public int degree(int phone) {
+    return offsets[phone + 1] - offsets[phone];
+  }
+
+  /**
+   * Id of the phone with the given vertex id.
+   */
+  public int id(Object vertexId) {
+    long id = ids.get(((Number) vertexId).longValue(), -1);
+    if (id < 0) {
+      throw new IllegalArgumentException("Phone not in the snapshot: " + vertexId);
+    }
+    return (int) id;
+  }
+
+  public long vertexId(int phone) {
+    return vertexIds[phone];
+  }
+
+  public String value(int phone) {
+    return values[phone];
+  }
+
+  /**
+   * Id of the member of the attribute of the phone, within its level.
+   */
+  public int attribute(Attribute attribute, int phone) {
+    return attributes[attribute.ordinal()][phone];
+  }
+
+  public int user(int phone) {
+    return attributes[Attribute.USER.ordinal()][phone];
+  }
+
+  public int userCount() {
+    return userNames.length;
+  }
+
+  public String userName(int user) {
+    return userNames[user];
+  }
+
+  /**
+   * Id of the user with the given value, or -1 if there is none.
+   */
+  public int userId(String userName) {
+    int user = Arrays.binarySearch(userNames, userName);
+    return user >= 0 ? user : -1;
+  }
+
+  /**
+   * Phones of the user, in order.
+   */
+  public int[] phonesOf(int user) {
+    return IntStream.range(0, size()).filter(phone -> user(phone) == user).toArray();
+  }
+
+  /**
+   * Distance from the source to every phone, or -1 for the ones not reached within maxDistance.
+   * A negative maxDistance does not limit it.
+   */
+  public int[] distancesFrom(int source, int maxDistance) {
+    int[] distances = new int[size()];
+    Arrays.fill(distances, -1);
+    int[] queue = new int[size()];
+    int head = 0;
+    int tail = 0;
+    distances[source] = 0;
+    queue[tail++] = source;
+    while (head < tail) {
+      int phone = queue[head++];
+      if (maxDistance >= 0 && distances[phone] >= maxDistance) {
+        continue;
+      }
+      for (int i = offsets[phone]; i < offsets[phone + 1]; i++) {
+        int neighbor = neighbors[i];
+        if (distances[neighbor] < 0) {
+          distances[neighbor] = distances[phone] + 1;
+          queue[tail++] = neighbor;
+        }
+      }
+    }
+    return distances;
+  }
+
+  /**
+   * Ancestor of the phones kept in a column of the snapshot, either a parent of the phones or the
+   * parent of another attribute, declared before it.
+   */
+  public enum Attribute {
+
+    USER("user", null),
+    OPERATOR("operator", null),
+    CITY("city", USER),
+    COUNTRY("country", CITY);
+
+    private final String level;
+    private final Attribute through;
+
+    Attribute(String level, Attribute through) {
+      this.level = level;
+      this.through = through;
+    }
+  }
+
+  /**
+   * Neighbors of each phone, added as the participants of each call are read. Each phone has an
+   * open addressing set of its neighbors, so repeated pairs are dropped as they come and memory is
+   * proportional to the distinct pairs of phones, not to the pairs of every call.
+   */
+  private static class NeighborSets {
+
+    private static final int EMPTY = -1;
+    // Capacity past which doubling an array would overflow.
+    private static final int MAX_CAPACITY = 1 << 30;
+
+    private final int[][] sets;
+    private final int[] sizes;
+    private long total;
+
+    // Participants of the call being read.
+    private long call = -1;
+    private int[] participants = new int[16];
+    private int participantCount;
+
+    NeighborSets(int phones) {
+      sets = new int[phones][];
+      sizes = new int[phones];
+    }
+
+    void addParticipant(long callId, int phone) {
+      if (callId != call) {
+        endCall();
+        call = callId;
+      }
+      if (participantCount == participants.length) {
+        participants = Arrays.copyOf(participants, doubled(participantCount));
+      }
+      participants[participantCount++] = phone;
+    }
+
+    /**
+     * Adds each pair of different participants of the call being read.
+     */
+    void endCall() {
+      for (int i = 0; i < participantCount; i++) {
+        for (int j = 0; j < participantCount; j++) {
+          if (participants[i] != participants[j]) {
+            add(participants[i], participants[j]);
+          }
+        }
+      }
+      participantCount = 0;
+    }
+
+    private void add(int source, int target) {
+      if (sets[source] == null) {
+        sets[source] = emptySet(4);
+      }
+      int[] set = sets[source];
+      int slot = find(set, target);
+      if (set[slot] == target) {
+        return;
+      }
+      set[slot] = target;
+      total++;
+      if (++sizes[source] * 2 > set.length) {
+        int[] grown = emptySet(doubled(set.length));
+        for (int neighbor : set) {
+          if (neighbor != EMPTY) {
+            grown[find(grown, neighbor)] = neighbor;
+          }
+        }
+        sets[source] = grown;
+      }
+    }
+
+    private static int find(int[] set, int phone) {
+      int mask = set.length - 1;
+      int slot = LongLongMap.hash(phone) & mask;
+      while (set[slot] != EMPTY && set[slot] != phone) {
+        slot = (slot + 1) & mask;
+      }
+      return slot;
+    }
+
+    private static int[] emptySet(int capacity) {
+      int[] set = new int[capacity];
+      Arrays.fill(set, EMPTY);
+      return set;
+    }
+
+    private static int doubled(int capacity) {
+      if (capacity >= MAX_CAPACITY) {
+        throw new IllegalStateException("Too many phones to grow an array of " + capacity);
+      }
+      return capacity * 2;
+    }
+  }
+}
@@ -4,6 +4,18 @@ import java.util.Map;
 
 public class PrintUtils {
 
+  // Results of the aggregation queries by tuple, recorded only if set (i.e: to compare engines).
+  public static Map<String, Double> results;
+
+  public static void printResult(Object tuple, double result, boolean printTuples) {
+    if (results != null) {
+      results.put(tuple.toString(), result);
+    }
+    if (printTuples) {
+      System.out.println(tuple.toString() + ": " + result);
+    }
+  }
+
   public static <S extends Comparable<? super S>> void printDistances(
       Map<S, Map<S, Integer>> distancesMap,
       boolean printTuples) {
@@ -0,0 +1,140 @@
+package ar.edu.itba;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+/**
+ * Approximate quantiles of non negative values, with a relative error of at most 1% on the values
+ * returned. Values are counted in buckets of logarithmic width, so sketches of disjoint sets are
+ * merged adding their buckets. The amount of buckets is bounded: if values span a wider range, the
+ * lowest buckets are collapsed, losing accuracy only on the lowest quantiles.
+ */
+public class QuantileSketch {
+
+  private static final double RELATIVE_ACCURACY = 0.01;
+  private static final double GAMMA = (1 + RELATIVE_ACCURACY) / (1 - RELATIVE_ACCURACY);
+  private static final double LOG_GAMMA = Math.log(GAMMA);
+  private static final int MAX_BUCKETS = 2048;
+
+  private long zeroCount;
+  // Counts of the buckets, the first one being the bucket of index minIndex.
+  private long[] counts = new long[0];
+  private int minIndex;
+
+  public void add(double value) {
+    add(value, 1);
+  }
+
+  public void add(double value, long count) {
+    if (value < 0) {
+      throw new IllegalArgumentException("Expecting a non negative value: " + value);
+    }
+    if (value == 0) {
+      zeroCount += count;
+      return;
+    }
+    int index = (int) Math.ceil(Math.log(value) / LOG_GAMMA);
+    ensureRange(index, index);
+    counts[Math.max(index, minIndex) - minIndex] += count;
+  }
+
+  public QuantileSketch merge(QuantileSketch other) {
+    zeroCount += other.zeroCount;
+    if (other.counts.length == 0) {
+      return this;
+    }
+    ensureRange(other.minIndex, other.minIndex + other.counts.length - 1);
+    for (int i = 0; i < other.counts.length; i++) {
+      counts[Math.max(other.minIndex + i, minIndex) - minIndex] += other.counts[i];
+    }
+    return this;
+  }
+
+  public long count() {
+    long count = zeroCount;
+    for (long bucket : counts) {
+      count += bucket;
+    }
+    return count;
+  }
+
+  /**
+   * Value at the given quantile, between 0 and 1.
+   */
+  public double quantile(double quantile) {
+    long count = count();
+    if (count == 0) {
+      throw new IllegalStateException("Empty sketch");
+    }
+    long rank = (long) (quantile * (count - 1));
+    long seen = zeroCount;
+    if (rank < seen) {
+      return 0;
+    }
+    for (int i = 0; i < counts.length; i++) {
+      seen += counts[i];
+      if (rank < seen) {
+        return 2 * Math.pow(GAMMA, minIndex + i) / (GAMMA + 1);
+      }
+    }
+    throw new IllegalStateException("Rank out of the sketch: " + rank);
+  }
+
+  public byte[] toBytes() {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (DataOutputStream out = new DataOutputStream(bytes)) {
+      out.writeLong(zeroCount);
+      out.writeInt(minIndex);
+      out.writeInt(counts.length);
+      for (long count : counts) {
+        out.writeLong(count);
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    return bytes.toByteArray();
+  }
+
+  public static QuantileSketch fromBytes(byte[] bytes) {
+    QuantileSketch sketch = new QuantileSketch();
+    try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes))) {
+      sketch.zeroCount = in.readLong();
+      sketch.minIndex = in.readInt();
+      sketch.counts = new long[in.readInt()];
+      for (int i = 0; i < sketch.counts.length; i++) {
+        sketch.counts[i] = in.readLong();
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    return sketch;
+  }
+
+  /**
+   * Grows the buckets to cover the given indexes, collapsing the lowest ones if they would be too
+   * many.
+   */
+  private void ensureRange(int low, int high) {
+    if (counts.length == 0) {
+      minIndex = Math.max(low, high - MAX_BUCKETS + 1);
+      counts = new long[high - minIndex + 1];
+      return;
+    }
+    int newMin = Math.min(minIndex, low);
+    int newMax = Math.max(minIndex + counts.length - 1, high);
+    if (newMin == minIndex && newMax == minIndex + counts.length - 1) {
+      return;
+    }
+    newMin = Math.max(newMin, newMax - MAX_BUCKETS + 1);
+    long[] newCounts = new long[newMax - newMin + 1];
+    for (int i = 0; i < counts.length; i++) {
+      newCounts[Math.max(minIndex + i, newMin) - newMin] += counts[i];
+    }
+    counts = newCounts;
+    minIndex = newMin;
+  }
+}
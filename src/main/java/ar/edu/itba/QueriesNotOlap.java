@@ -1,14 +1,12 @@
 package ar.edu.itba;
 
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
-import java.util.Map;
 import java.util.Set;
-import java.util.stream.StreamSupport;
+import java.util.function.BiConsumer;
+import java.util.stream.LongStream;
 
-import org.apache.tinkerpop.gremlin.process.traversal.Path;
-import org.apache.tinkerpop.gremlin.process.traversal.dsl.graph.GraphTraversal;
+import org.apache.tinkerpop.gremlin.process.traversal.P;
 import org.apache.tinkerpop.gremlin.structure.Direction;
 import org.apache.tinkerpop.gremlin.structure.Edge;
 import org.apache.tinkerpop.gremlin.structure.Vertex;
@@ -19,312 +17,225 @@ import org.javatuples.Triplet;
 public class QueriesNotOlap {
 
 	public static boolean printTuples;
+	// Aggregation to use instead of the one of each query, if set.
+	public static Aggregation aggregation;
+	// Whether calls have the keys of their ancestors, see HierarchyKeys.
+	public static boolean useHierarchyKeys;
+	// Ids of the members, built from the graph if not set.
+	public static Dictionary dictionary;
+	// Threads used to scan the calls.
+	public static int workers = Runtime.getRuntime().availableProcessors();
 	
 	public static void query1_1_1(JanusGraph graph) {
+		Dictionary dictionary = dictionary(graph);
 		
-		GraphTraversal<Vertex, Vertex> calls = graph.traversal().V().has("type", "call");
-		
-		Map<Pair<String, String>, Set<Vertex>> pairsMap = new HashMap<>();
-
-		calls.toStream().forEach(call -> {
-			Iterator<Edge> edgesIt = call.edges(Direction.OUT, "integratedBy", "calledBy");
-			Set<String> phones = new HashSet<String>();
-			while (edgesIt.hasNext()) {
-				String phone = edgesIt.next().inVertex().value("value");
-				phones.add(phone);
-			}
-			if (phones.size() < 2) {
-				return;
-			}
-			for (String phone1 : phones) {
-				for (String phone2 : phones) {
-					if (phone1.equals(phone2)) {
-						continue;
-					}
-					Pair<String, String> phonePair = new Pair<>(phone1, phone2);
-					pairsMap.putIfAbsent(phonePair, new HashSet<Vertex>());
-					pairsMap.get(phonePair).add(call);
-				}
-			}
+		GroupAccumulator groups = scan(graph, allCallIds(graph), Aggregation.AVG, (call, callGroups) -> {
+			Combinations.addKeys(memberIds(dictionary, call, "integratedBy", "calledBy"), TupleKeys.PAIRS,
+					callGroups);
 		});
 		
-		aggPairs(pairsMap, Aggregation.AVG);
+		printPairs(groups, dictionary, "phone");
 	} 
 	
 	public static void query1_1_2(JanusGraph graph) {
-		
-		GraphTraversal<Vertex, Path> paths = graph.traversal().V().has("type", "phone")
-				.in("integratedBy", "calledBy").out("integratedBy", "calledBy").path();
-		
-		Map<Pair<String, String>, Set<Vertex>> pairsMap = new HashMap<>();
-		
-		paths.toStream().forEach(path -> {
-			String value1 = ((Vertex) path.get(0)).value("value");
-			String value2 = ((Vertex) path.get(2)).value("value");
-			Pair<String, String> phonePair = new Pair<>(value1, value2);
-			Vertex call = (Vertex) path.get(1);
-			
-			pairsMap.putIfAbsent(phonePair, new HashSet<Vertex>());
-			pairsMap.get(phonePair).add(call);
+		Dictionary dictionary = dictionary(graph);
+		GroupAccumulator groups = new GroupAccumulator(aggregationOr(Aggregation.AVG));
+		
+		// Same as query1_1_1(), but reading the calls in this thread as they are traversed.
+		graph.traversal().V().has("type", "call").toStream().forEach(call -> {
+			Combinations.addKeys(memberIds(dictionary, call, "integratedBy", "calledBy"), TupleKeys.PAIRS,
+					groups);
+			groups.addCall(call);
 		});
 		
-		aggPairs(pairsMap, Aggregation.AVG);
+		printPairs(groups, dictionary, "phone");
 	} 
 	
 	public static void query1_2(JanusGraph graph) {
+		Dictionary dictionary = dictionary(graph);
 		
-		GraphTraversal<Vertex, Vertex> calls = graph.traversal().V().has("type", "call");
-		
-		Map<Pair<String, String>, Set<Vertex>> pairsMap = new HashMap<>();
-
-		calls.toStream().forEach(call -> {
-			Iterator<Edge> callereEdgesIt = call.edges(Direction.OUT, "calledBy");
-			Set<String> callers = new HashSet<String>();
-			while (callereEdgesIt.hasNext()) {
-				String phone = callereEdgesIt.next().inVertex().value("value");
-				callers.add(phone);
-			}
-			Iterator<Edge> participantsEdgesIt = call.edges(Direction.OUT, "integratedBy");
-			Set<String> participants = new HashSet<String>();
-			while (participantsEdgesIt.hasNext()) {
-				String phone = participantsEdgesIt.next().inVertex().value("value");
-				participants.add(phone);
-			}
-			for (String phone1 : callers) {
-				for (String phone2 : participants) {
-					if (phone1.equals(phone2)) {
-						continue;
-					}
-					Pair<String, String> phonePair = new Pair<>(phone1, phone2);
-					pairsMap.putIfAbsent(phonePair, new HashSet<Vertex>());
-					pairsMap.get(phonePair).add(call);
-				}
-			}
+		GroupAccumulator groups = scan(graph, allCallIds(graph), Aggregation.AVG, (call, callGroups) -> {
+			int[] callers = memberIds(dictionary, call, "calledBy");
+			int[] participants = memberIds(dictionary, call, "integratedBy");
+			addPairs(callGroups, callers, participants);
 		});
 		
-		aggPairs(pairsMap, Aggregation.AVG);
+		printPairs(groups, dictionary, "phone");
 	} 
 	
 	public static void query1_3(JanusGraph graph) {
-		Map<Pair<String, String>, Set<Vertex>> pairsMap = getUserPairs(graph);
-		
-		aggPairs(pairsMap, Aggregation.MAX);
+		printPairs(getUserPairs(graph, Aggregation.MAX), dictionary(graph), "user");
 	} 
 	
 	public static void query1_4(JanusGraph graph) {
-		Map<Pair<String, String>, Set<Vertex>> pairsMap = getUserPairs(graph);
-		
-		aggPairs(pairsMap, Aggregation.COUNT);
+		printPairs(getUserPairs(graph, Aggregation.COUNT), dictionary(graph), "user");
 	} 
 	
 	public static void query1_5(JanusGraph graph) {
-		GraphTraversal<Vertex, Vertex> calls = graph.traversal().V().has("type", "call");
+		Dictionary dictionary = dictionary(graph);
+		TupleKeys keys = new TupleKeys(3,
+				Math.max(dictionary.size("user"), dictionary.size("month")));
 		
-		Map<Triplet<String, String, String>, Set<Vertex>> tripletsMap = new HashMap<>();
-
-		calls.toStream().forEach(call -> {
-			Iterator<Edge> edgesIt = call.edges(Direction.OUT, "integratedBy", "calledBy");
-			Set<String> users = new HashSet<String>();
-			while (edgesIt.hasNext()) {
-				Iterator<Edge> phoneEdgesIt = edgesIt.next().inVertex().edges(Direction.OUT);
-				while (phoneEdgesIt.hasNext()) {
-					Vertex v = phoneEdgesIt.next().inVertex();
-					if (v.label().equals("user")) {
-						users.add(v.value("value"));
-					}
-				}
-			}
-			String month = call.edges(Direction.OUT, "atTime").next().inVertex() // timestamp
-					.edges(Direction.OUT).next().inVertex() // day
-					.edges(Direction.OUT).next().inVertex().value("value");
-			if (users.size() < 2) {
+		GroupAccumulator groups = scan(graph, allCallIds(graph), Aggregation.COUNT, (call, callGroups) -> {
+			int[] users = usersOf(dictionary, call);
+			if (users.length < 2) {
 				return;
 			}
-			for (String user1 : users) {
-				for (String user2 : users) {
-					if (user1.equals(user2)) {
-						continue;
-					}
-					Triplet<String, String, String> userTriplet = new Triplet<>(user1, user2, month);
-					tripletsMap.putIfAbsent(userTriplet, new HashSet<Vertex>());
-					tripletsMap.get(userTriplet).add(call);
-				}
-			}
+			int month = monthOf(dictionary, call);
+			Combinations.forEach(users, 2,
+					pair -> callGroups.key(keys.triplet(pair[0], pair[1], month)));
 		});
 		
-		tripletsMap.entrySet().stream().forEach(entry -> {
-			Triplet<String, String, String> triplet = entry.getKey();
-			if (triplet.getValue1().compareTo(triplet.getValue0()) <= 0) {
-				return;
-			}
-			Set<Vertex> callSet = entry.getValue();
-			double result = Operations.agg(callSet.stream().flatMapToDouble(call -> {
-				Iterable<Double> durations = () -> call.values("duration");
-	    		return StreamSupport.stream(durations.spliterator(), true).mapToDouble(x -> x);
-			}), Aggregation.COUNT);
-			if (printTuples) {
-				System.out.println(triplet.toString() + ": " + result);
-			}
-		});
+		groups.forEach((triplet, result) -> PrintUtils.printResult(new Triplet<>(
+				dictionary.value("user", keys.id(triplet, 0)),
+				dictionary.value("user", keys.id(triplet, 1)),
+				dictionary.value("month", keys.id(triplet, 2))), result, printTuples));
 	}
 	
 	public static void query1_6(JanusGraph graph) {
+		Dictionary dictionary = dictionary(graph);
 		
-		GraphTraversal<Vertex, Vertex> calls = graph.traversal().V().has("type", "month")
-				.has("value", "4-2017")
-				.in() // day
-				.in() // timestamp
-				.in(); // call
+		LongStream callIds = callIdsOfMonth(graph, "4-2017");
 		
-		Map<Pair<String, String>, Set<Vertex>> pairsMap = new HashMap<>();
-
-		calls.toStream().forEach(call -> {
-			Iterator<Edge> edgesIt = call.edges(Direction.OUT, "integratedBy", "calledBy");
-			Set<String> users = new HashSet<String>();
-			while (edgesIt.hasNext()) {
-				Edge edge = edgesIt.next();
-				Iterator<Edge> inEdgesIt = edge.inVertex().edges(Direction.OUT);
-				String user = null;
-				while (inEdgesIt.hasNext()) {
-					Vertex v = inEdgesIt.next().inVertex();
-					if (v.label().equals("user")) {
-						user = v.value("value");
-					}
-				}
-				users.add(user);
-			}
-			if (users.size() < 2) {
-				return;
-			}
-			for (String user1 : users) {
-				for (String user2 : users) {
-					if (user1.equals(user2)) {
-						continue;
-					}
-					Pair<String, String> pair = new Pair<>(user1, user2);
-					pairsMap.putIfAbsent(pair, new HashSet<Vertex>());
-					pairsMap.get(pair).add(call);
-				}
-			}
+		GroupAccumulator groups = scan(graph, callIds, Aggregation.COUNT, (call, callGroups) -> {
+			Combinations.addKeys(usersOf(dictionary, call), TupleKeys.PAIRS, callGroups);
 		});
 		
-		aggPairs(pairsMap, Aggregation.COUNT);
+		printPairs(groups, dictionary, "user");
 	} 
 	
 	public static void query2_1(JanusGraph graph) {
+		Dictionary dictionary = dictionary(graph);
+		TupleKeys keys = new TupleKeys(3, dictionary.size("user"));
 		
-		GraphTraversal<Vertex, Vertex> calls = graph.traversal().V().has("type", "month")
-				.has("value", "4-2017")
-				.in() // day
-				.in() // timestamp
-				.in(); // call
+		LongStream callIds = callIdsOfMonth(graph, "4-2017");
 		
-		Map<Triplet<String, String, String>, Set<Vertex>> tripletsMap = new HashMap<>();
-
-		calls.toStream().forEach(call -> {
-			Iterator<Edge> edgesIt = call.edges(Direction.OUT, "integratedBy", "calledBy");
-			Set<String> users = new HashSet<String>();
-			while (edgesIt.hasNext()) {
-				Edge edge = edgesIt.next();
-				Iterator<Edge> inEdgesIt = edge.inVertex().edges(Direction.OUT);
-				String user = null;
-				while (inEdgesIt.hasNext()) {
-					Vertex v = inEdgesIt.next().inVertex();
-					if (v.label().equals("user")) {
-						user = v.value("value");
-					}
-				}
-				users.add(user);
-			}
-			if (users.size() < 3) {
-				return;
-			}
-			for (String user1 : users) {
-				for (String user2 : users) {
-					for (String user3 : users) {
-						if (user1.equals(user2) || user3.equals(user1) || user3.equals(user2)) {
-							continue;
-						}
-						Triplet<String, String, String> triplet = new Triplet<>(user1, user2, user3);
-						tripletsMap.putIfAbsent(triplet, new HashSet<Vertex>());
-						tripletsMap.get(triplet).add(call);
-					}
-				}
-			}
+		GroupAccumulator groups = scan(graph, callIds, Aggregation.AVG, (call, callGroups) -> {
+			Combinations.addKeys(usersOf(dictionary, call), keys, callGroups);
 		});
 		
-		aggTriplets(tripletsMap, Aggregation.AVG);
+		groups.forEach((triplet, result) -> PrintUtils.printResult(new Triplet<>(
+				dictionary.value("user", keys.id(triplet, 0)),
+				dictionary.value("user", keys.id(triplet, 1)),
+				dictionary.value("user", keys.id(triplet, 2))), result, printTuples));
 	} 
 	
-	private static Map<Pair<String, String>, Set<Vertex>> getUserPairs(JanusGraph graph) {
-		GraphTraversal<Vertex, Vertex> calls = graph.traversal().V().has("type", "call");
+	private static GroupAccumulator getUserPairs(JanusGraph graph, Aggregation agg) {
+		Dictionary dictionary = dictionary(graph);
 		
-		Map<Pair<String, String>, Set<Vertex>> pairsMap = new HashMap<>();
-
-		calls.toStream().forEach(call -> {
-			Iterator<Edge> edgesIt = call.edges(Direction.OUT, "integratedBy", "calledBy");
-			Set<String> users = new HashSet<String>();
-			while (edgesIt.hasNext()) {
-				Iterator<Edge> phoneEdgesIt = edgesIt.next().inVertex().edges(Direction.OUT);
-				while (phoneEdgesIt.hasNext()) {
-					Vertex v = phoneEdgesIt.next().inVertex();
-					if (v.label().equals("user")) {
-						users.add(v.value("value"));
-					}
+		return scan(graph, allCallIds(graph), agg, (call, callGroups) -> {
+			Combinations.addKeys(usersOf(dictionary, call), TupleKeys.PAIRS, callGroups);
+		});
+	}
+	
+	/**
+	 * Adds the pairs of members with the first member ordered before the second one as groups of the
+	 * call.
+	 */
+	private static void addPairs(GroupAccumulator groups, int[] members1, int[] members2) {
+		for (int member1 : members1) {
+			for (int member2 : members2) {
+				if (member2 > member1) {
+					groups.key(Dictionary.pair(member1, member2));
 				}
 			}
-			if (users.size() < 2) {
-				return;
-			}
-			for (String user1 : users) {
-				for (String user2 : users) {
-					if (user1.equals(user2)) {
-						continue;
-					}
-					Pair<String, String> userPair = new Pair<>(user1, user2);
-					pairsMap.putIfAbsent(userPair, new HashSet<Vertex>());
-					pairsMap.get(userPair).add(call);
+		}
+	}
+	
+	/**
+	 * Aggregates the calls in parallel, see ParallelScan.
+	 */
+	private static GroupAccumulator scan(JanusGraph graph, LongStream callIds, Aggregation agg,
+			BiConsumer<Vertex, GroupAccumulator> keysOf) {
+		return new ParallelScan(graph, workers).aggregate(callIds, aggregationOr(agg), keysOf);
+	}
+	
+	private static LongStream allCallIds(JanusGraph graph) {
+		return new Operations(graph).callIds();
+	}
+	
+	/**
+	 * Ids of the calls of the month, read as the stream is consumed.
+	 */
+	private static LongStream callIdsOfMonth(JanusGraph graph, String month) {
+		if (useHierarchyKeys) {
+			Object[] monthIds = graph.traversal().V().has("type", "month").has("value", month)
+					.id().toList().toArray();
+			return graph.traversal().V().has(HierarchyKeys.MONTH, P.within(monthIds)).id().toStream()
+					.mapToLong(id -> ((Number) id).longValue());
+		}
+		// Walks down from the month to its calls, without indexing every call.
+		return graph.traversal().V().has("type", "month").has("value", month)
+				.in("extendsFrom") // day
+				.in("extendsFrom") // timestamp
+				.in("atTime") // call
+				.id().toStream().mapToLong(id -> ((Number) id).longValue());
+	}
+	
+	/**
+	 * Ids of the members the call points to through the given edge labels, without repetitions.
+	 */
+	private static int[] memberIds(Dictionary dictionary, Vertex call, String... labels) {
+		Iterator<Edge> edgesIt = call.edges(Direction.OUT, labels);
+		Set<Integer> members = new HashSet<>();
+		while (edgesIt.hasNext()) {
+			members.add(dictionary.id(edgesIt.next().inVertex()));
+		}
+		return toArray(members);
+	}
+	
+	/**
+	 * Ids of the users of the phones that took part in the call, without repetitions.
+	 */
+	private static int[] usersOf(Dictionary dictionary, Vertex call) {
+		Set<Integer> users = new HashSet<>();
+		if (useHierarchyKeys) {
+			call.values(HierarchyKeys.USER).forEachRemaining(id -> users.add(dictionary.id(id)));
+			return toArray(users);
+		}
+		Iterator<Edge> edgesIt = call.edges(Direction.OUT, "integratedBy", "calledBy");
+		while (edgesIt.hasNext()) {
+			Iterator<Edge> phoneEdgesIt = edgesIt.next().inVertex().edges(Direction.OUT);
+			while (phoneEdgesIt.hasNext()) {
+				Vertex v = phoneEdgesIt.next().inVertex();
+				if (v.label().equals("user")) {
+					users.add(dictionary.id(v));
 				}
 			}
-		});
-		
-		return pairsMap;
+		}
+		return toArray(users);
 	}
 	
-	private static void aggPairs(Map<Pair<String, String>, Set<Vertex>> pairsMap, 
-			Aggregation agg) {
-		pairsMap.entrySet().stream().forEach(entry -> {
-			Pair<String, String> pair = entry.getKey();
-			if (pair.getValue1().compareTo(pair.getValue0()) <= 0) {
-				return;
-			}
-			Set<Vertex> callSet = entry.getValue();
-			double result = Operations.agg(callSet.stream().flatMapToDouble(call -> {
-				Iterable<Double> durations = () -> call.values("duration");
-	    		return StreamSupport.stream(durations.spliterator(), true).mapToDouble(x -> x);
-			}), agg);
-			if (printTuples) {
-				System.out.println(pair.toString() + ": " + result);
-			}
-		});
+	private static int monthOf(Dictionary dictionary, Vertex call) {
+		if (useHierarchyKeys) {
+			return dictionary.id(call.value(HierarchyKeys.MONTH));
+		}
+		return dictionary.id(call.edges(Direction.OUT, "atTime").next().inVertex() // timestamp
+				.edges(Direction.OUT).next().inVertex() // day
+				.edges(Direction.OUT).next().inVertex());
 	}
 	
-	private static void aggTriplets(Map<Triplet<String, String, String>, Set<Vertex>> tripletsMap, 
-			Aggregation agg) {
-		tripletsMap.entrySet().stream().forEach(entry -> {
-			Triplet<String, String, String> triplet = entry.getKey();
-			if (triplet.getValue1().compareTo(triplet.getValue0()) <= 0 
-					|| triplet.getValue2().compareTo(triplet.getValue1()) <= 0) {
-				return;
-			}
-			Set<Vertex> callSet = entry.getValue();
-			double result = Operations.agg(callSet.stream().flatMapToDouble(call -> {
-				Iterable<Double> durations = () -> call.values("duration");
-	    		return StreamSupport.stream(durations.spliterator(), true).mapToDouble(x -> x);
-			}), agg);
-			if (printTuples) {
-				System.out.println(triplet.toString() + ": " + result);
-			}
-		});
+	private static int[] toArray(Set<Integer> ids) {
+		return ids.stream().mapToInt(Integer::intValue).toArray();
+	}
+	
+	/**
+	 * Prints the result of each pair, decoding the members of the pair only to print them.
+	 */
+	private static void printPairs(GroupAccumulator groups, Dictionary dictionary, String level) {
+		groups.forEach((pair, result) -> PrintUtils.printResult(
+				new Pair<>(dictionary.value(level, Dictionary.first(pair)),
+						dictionary.value(level, Dictionary.second(pair))), result, printTuples));
+	}
+	
+	private static Dictionary dictionary(JanusGraph graph) {
+		if (dictionary == null) {
+			dictionary = Dictionary.build(graph);
+		}
+		return dictionary;
+	}
+	
+	private static Aggregation aggregationOr(Aggregation agg) {
+		return aggregation != null ? aggregation : agg;
 	}
 }
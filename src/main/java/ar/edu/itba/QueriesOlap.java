@@ -1,17 +1,8 @@
 package ar.edu.itba;
 
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Iterator;
-import java.util.Map;
-import java.util.Set;
+import java.util.List;
 import java.util.stream.Stream;
-import java.util.stream.StreamSupport;
 
-import org.apache.tinkerpop.gremlin.process.traversal.Path;
-import org.apache.tinkerpop.gremlin.process.traversal.dsl.graph.GraphTraversal;
-import org.apache.tinkerpop.gremlin.structure.Direction;
-import org.apache.tinkerpop.gremlin.structure.Edge;
 import org.apache.tinkerpop.gremlin.structure.Vertex;
 import org.janusgraph.core.JanusGraph;
 import org.javatuples.Pair;
@@ -20,8 +11,19 @@ import org.javatuples.Triplet;
 public class QueriesOlap {
 
 	public static boolean printTuples;
+	// Aggregation to use instead of the one of each query, if set.
+	public static Aggregation aggregation;
+	// Whether to roll up with a RollUpView instead of modifying the graph.
+	public static boolean virtualRollUp = true;
+	// Ids of the members, built from the graph if not set.
+	public static Dictionary dictionary;
+	// Precomputed group-bys that answer the queries they can, if set.
+	public static MaterializedViews views;
 	
 	public static void query1_1(JanusGraph graph) {
+		if (queryViews("phone", null, null, Aggregation.AVG)) {
+			return;
+		}
 		query(graph, "phone", Aggregation.AVG, false);
 	}
 	
@@ -30,155 +32,206 @@ public class QueriesOlap {
 	}
 	
 	public static void query1_3(JanusGraph graph) {
+		if (queryViews("user", null, null, Aggregation.MAX)) {
+			return;
+		}
 		query(graph, "user", Aggregation.MAX, false);
 	}
 	
 	public static void query1_4(JanusGraph graph) {
+		if (queryViews("user", null, null, Aggregation.COUNT)) {
+			return;
+		}
 		query(graph, "user", Aggregation.COUNT, false);
 	}
 	
 	public static void query1_5(JanusGraph graph) {
-		Operations operations = new Operations(graph);
-		
-		operations.rollUp("timestamp", "month", Aggregation.ARRAY);
-		operations.rollUp("phone", "user", Aggregation.ARRAY);
-		
-		GraphTraversal<Vertex, Path> paths = graph.traversal().V().has("type", "user")
-				.in("integratedBy", "calledBy").out("integratedBy", "calledBy").path();
-		
-		Map<Triplet<String, String, String>, Set<Vertex>> tripletsMap = new HashMap<>();
-
-		paths.toStream().forEach(path -> {
-			String user1 = ((Vertex) path.get(0)).value("value");
-			String user2 = ((Vertex) path.get(2)).value("value");
-			String month = ((Vertex) path.get(1)).edges(Direction.OUT, "atTime").next().inVertex().value("value");
-			Triplet<String, String, String> triplet = new Triplet<>(user1, user2, month);
-			Vertex call = (Vertex) path.get(1);
-			
-			tripletsMap.putIfAbsent(triplet, new HashSet<Vertex>());
-			tripletsMap.get(triplet).add(call);
-		});
-		
-		tripletsMap.entrySet().stream().forEach(entry -> {
-			Triplet<String, String, String> triplet = entry.getKey();
-			if (triplet.getValue1().compareTo(triplet.getValue0()) >= 0) {
+		if (views != null) {
+			GroupAccumulator groups = views.query("user", "month", null, null,
+					aggregationOr(Aggregation.COUNT));
+			if (groups != null) {
+				// Pairs of the views are in order, while the ones of the query are reversed.
+				groups.forEach((triplet, result) -> PrintUtils.printResult(new Triplet<>(
+						views.value("user", Dictionary.tripletId(triplet, 1)),
+						views.value("user", Dictionary.tripletId(triplet, 0)),
+						views.value("month", Dictionary.tripletId(triplet, 2))), result, printTuples));
 				return;
 			}
-			Set<Vertex> callSet = entry.getValue();
-			double result = Operations.agg(callSet.stream().flatMapToDouble(call -> {
-				Iterable<Double> durations = () -> call.values("duration");
-	    		return StreamSupport.stream(durations.spliterator(), true).mapToDouble(x -> x);
-			}), Aggregation.COUNT);
-			if (printTuples) {
-				System.out.println(triplet.toString() + ": " + result);
-			}
+		}
+		Dictionary dictionary = dictionary(graph);
+		TupleKeys keys = new TupleKeys(3,
+				Math.max(dictionary.size("user"), dictionary.size("month")));
+		GroupAccumulator groups = new GroupAccumulator(aggregationOr(Aggregation.COUNT));
+		query1_5Triplets(graph, dictionary, keys, groups);
+		
+		groups.forEach((triplet, result) -> PrintUtils.printResult(new Triplet<>(
+				dictionary.value("user", keys.id(triplet, 0)),
+				dictionary.value("user", keys.id(triplet, 1)),
+				dictionary.value("month", keys.id(triplet, 2))), result, printTuples));
+	}
+	
+	/**
+	 * Groups calls by (user1, user2, month) triplet, only with user2 ordered before user1. Calls are
+	 * read one at a time, so only the keys of the current one are kept to add it once to each group.
+	 */
+	private static void query1_5Triplets(JanusGraph graph, Dictionary dictionary, TupleKeys keys,
+			GroupAccumulator groups) {
+		Operations operations = new Operations(graph);
+		// Once climbed, the calls point to the users and months, so the view is left empty.
+		RollUpView view = new RollUpView(graph);
+		if (virtualRollUp) {
+			view.rollUp("timestamp", "month").rollUp("phone", "user");
+		} else {
+			operations.rollUp("timestamp", "month", Aggregation.ARRAY);
+			operations.rollUp("phone", "user", Aggregation.ARRAY);
+		}
+		
+		operations.calls().forEach(call -> {
+			int[] users = ids(dictionary, view.memberIds(call, "integratedBy", "calledBy"));
+			int month = dictionary.id(view.memberId(call, "atTime"));
+			Combinations.forEach(users, 2,
+					pair -> groups.key(keys.triplet(pair[1], pair[0], month)));
+			groups.addCall(call, view);
 		});
 	}
 	
 	public static void query1_6(JanusGraph graph) {
+		if (queryViews("user", "month", "4-2017", Aggregation.COUNT)) {
+			return;
+		}
 		Operations operations = new Operations(graph);
 		operations.diceEquals("month", "4-2017");
 		
-		query(graph, "user", Aggregation.COUNT, false);
+		query(graph, operations, "user", Aggregation.COUNT, false);
 	}
 	
 	public static void query2_1(JanusGraph graph) {
-		Operations operations = new Operations(graph);
+		Dictionary dictionary = dictionary(graph);
+		TupleKeys keys = new TupleKeys(3, dictionary.size("user"));
+		GroupAccumulator groups = new GroupAccumulator(aggregationOr(Aggregation.AVG));
+		query2_1Triplets(graph, dictionary, keys, groups);
 		
+		groups.forEach((triplet, result) -> PrintUtils.printResult(new Triplet<>(
+				dictionary.value("user", keys.id(triplet, 0)),
+				dictionary.value("user", keys.id(triplet, 1)),
+				dictionary.value("user", keys.id(triplet, 2))), result, printTuples));
+	} 
+	
+	/**
+	 * Groups calls by triplet of users, only with the users in order. Calls are read one at a time,
+	 * as in query1_5Triplets().
+	 */
+	private static void query2_1Triplets(JanusGraph graph, Dictionary dictionary, TupleKeys keys,
+			GroupAccumulator groups) {
+		Operations operations = new Operations(graph);
 		operations.diceEquals("month", "4-2017");
-		operations.rollUp("phone", "user", Aggregation.ARRAY);
-		
-		GraphTraversal<Vertex, Path> paths = graph.traversal().V().has("type", "user")
-				.in("integratedBy", "calledBy").out("integratedBy", "calledBy").path();
+		RollUpView view = new RollUpView(graph);
+		if (virtualRollUp) {
+			view.rollUp("phone", "user");
+		} else {
+			operations.rollUp("phone", "user", Aggregation.ARRAY);
+		}
 		
-		Map<Triplet<String, String, String>, Set<Vertex>> tripletsMap = new HashMap<>();
-
-		paths.toStream().forEach(path -> {
-			String user1 = ((Vertex) path.get(0)).value("value");
-			String user2 = ((Vertex) path.get(2)).value("value");
-			if (user1.equals(user2)) {
-				return;
+		operations.calls().forEach(call -> {
+			int[] users = ids(dictionary, view.memberIds(call, "integratedBy", "calledBy"));
+			Combinations.addKeys(users, keys, groups);
+			groups.addCall(call, view);
+		});
+	}
+	
+	/**
+	 * Prints the pairs of members of the "top" level of the calls at the member of the dice level
+	 * with the given value, if any, from the views. Returns whether they could answer it.
+	 */
+	private static boolean queryViews(String top, String diceLevel, String diceValue,
+			Aggregation agg) {
+		if (views == null) {
+			return false;
+		}
+		GroupAccumulator groups = views.query(top, MaterializedViews.ALL_TIMES, diceLevel, diceValue,
+				aggregationOr(agg));
+		if (groups == null) {
+			return false;
+		}
+		groups.forEach((triplet, result) -> PrintUtils.printResult(
+				new Pair<>(views.value(top, Dictionary.tripletId(triplet, 0)),
+						views.value(top, Dictionary.tripletId(triplet, 1))), result, printTuples));
+		return true;
+	}
+	
+	private static void query(JanusGraph graph, String top, Aggregation agg, boolean diffCaller) {
+		query(graph, new Operations(graph), top, agg, diffCaller);
+	}
+	
+	/**
+	 * Aggregates the pairs of members of the calls kept by the operations, at the "top" level.
+	 */
+	private static void query(JanusGraph graph, Operations operations, String top, Aggregation agg,
+			boolean diffCaller) {
+		Dictionary dictionary = dictionary(graph);
+		GroupAccumulator groups = new GroupAccumulator(aggregationOr(agg));
+		RollUpView view = new RollUpView(graph);
+		if (virtualRollUp) {
+			// Rolling up the time only lets minimize() merge more calls, which does not change the
+			// durations of each pair, so it is not needed here.
+			if (!top.equals("phone")) {
+				view.rollUp("phone", top);
 			}
-			Vertex call = (Vertex) path.get(1);
-			Iterator<Edge> edgesIt = ((Vertex) path.get(1)).edges(Direction.OUT, "integratedBy", "calledBy");
-			while (edgesIt.hasNext()) {
-				Edge edge = edgesIt.next();
-				String user3 = edge.inVertex().value("value");
-				if (user3.equals(user1) || user3.equals(user2)) {
-					continue;
-				}
-				Triplet<String, String, String> triplet = new Triplet<>(user1, user2, user3);
-				tripletsMap.putIfAbsent(triplet, new HashSet<Vertex>());
-				tripletsMap.get(triplet).add(call);
+		} else {
+			operations.rollUp("timestamp", "allTimes", Aggregation.ARRAY);
+			if (!top.equals("phone")) {
+				operations.rollUp("phone", top, Aggregation.ARRAY);
 			}
-		});
+		}
+		addPairs(operations.calls(), view, dictionary, diffCaller, groups);
 		
-		tripletsMap.entrySet().stream().forEach(entry -> {
-			Triplet<String, String, String> triplet = entry.getKey();
-			if (triplet.getValue1().compareTo(triplet.getValue0()) <= 0 
-					|| triplet.getValue2().compareTo(triplet.getValue1()) <= 0) {
+		groups.forEach((pair, result) -> PrintUtils.printResult(
+				new Pair<>(dictionary.value(top, Dictionary.first(pair)),
+						dictionary.value(top, Dictionary.second(pair))), result, printTuples));
+	}
+	
+	/**
+	 * Adds each call to the pairs of its members, read through the view, that are in order. With
+	 * "diffCaller", only pairs of a caller and a participant are kept.
+	 */
+	private static void addPairs(Stream<Vertex> calls, RollUpView view, Dictionary dictionary,
+			boolean diffCaller, GroupAccumulator groups) {
+		calls.forEach(call -> {
+			if (!diffCaller) {
+				Combinations.addKeys(ids(dictionary, view.memberIds(call, "integratedBy", "calledBy")),
+						TupleKeys.PAIRS, groups);
+				groups.addCall(call, view);
 				return;
 			}
-			Set<Vertex> callSet = entry.getValue();
-			double result = Operations.agg(callSet.stream().flatMapToDouble(call -> {
-				Iterable<Double> durations = () -> call.values("duration");
-	    		return StreamSupport.stream(durations.spliterator(), true).mapToDouble(x -> x);
-			}), Aggregation.AVG);
-			if (printTuples) {
-				System.out.println(triplet.toString() + ": " + result);
+			int[] callers = ids(dictionary, view.memberIds(call, "calledBy"));
+			int[] participants = ids(dictionary, view.memberIds(call, "integratedBy"));
+			for (int caller : callers) {
+				for (int participant : participants) {
+					if (participant > caller) {
+						groups.key(Dictionary.pair(caller, participant));
+					}
+				}
 			}
+			groups.addCall(call, view);
 		});
-	} 
+	}
 	
-	private static void query(JanusGraph graph, String top, Aggregation agg, boolean diffCaller) {
-		Operations operations = new Operations(graph);
-		
-		operations.rollUp("timestamp", "allTimes", Aggregation.ARRAY);
-		if (!top.equals("phone")) {
-			operations.rollUp("phone", top, Aggregation.ARRAY);
+	private static int[] ids(Dictionary dictionary, List<Object> memberIds) {
+		int[] ids = new int[memberIds.size()];
+		for (int i = 0; i < ids.length; i++) {
+			ids[i] = dictionary.id(memberIds.get(i));
 		}
-		
-		GraphTraversal<Vertex, Path> paths = getPaths(graph, top, diffCaller);
-		
-		forEachPair(paths.toStream(), agg);
+		return ids;
 	}
 	
-	private static GraphTraversal<Vertex, Path> getPaths(JanusGraph graph, String bottom, boolean diffCaller) {
-		if (diffCaller) {
-			return graph.traversal().V().has("type", bottom)
-					.in("calledBy").out("integratedBy").path();
-		} else {
-			return graph.traversal().V().has("type", bottom)
-					.in("integratedBy", "calledBy").out("integratedBy", "calledBy").path();
+	private static Dictionary dictionary(JanusGraph graph) {
+		if (dictionary == null) {
+			dictionary = Dictionary.build(graph);
 		}
+		return dictionary;
 	}
 	
-	private static void forEachPair(Stream<Path> paths, Aggregation agg) {
-		Map<Pair<String, String>, Set<Vertex>> valuesPairMap = new HashMap<>();
-
-		paths.forEach(path -> {
-			String value1 = ((Vertex) path.get(0)).value("value");
-			String value2 = ((Vertex) path.get(2)).value("value");
-			Pair<String, String> phonePair = new Pair<>(value1, value2);
-			Vertex call = (Vertex) path.get(1);
-			
-			valuesPairMap.putIfAbsent(phonePair, new HashSet<Vertex>());
-			valuesPairMap.get(phonePair).add(call);
-		});
-		
-		valuesPairMap.entrySet().stream().forEach(entry -> {
-			Pair<String, String> valuePair = entry.getKey();
-			if (valuePair.getValue1().compareTo(valuePair.getValue0()) <= 0) {
-				return;
-			}
-			Set<Vertex> callSet = entry.getValue();
-			double result = Operations.agg(callSet.stream().flatMapToDouble(call -> {
-				Iterable<Double> durations = () -> call.values("duration");
-	    		return StreamSupport.stream(durations.spliterator(), true).mapToDouble(x -> x);
-			}), agg);
-			if (printTuples) {
-				System.out.println(valuePair.toString() + ": " + result);
-			}
-		});
+	private static Aggregation aggregationOr(Aggregation agg) {
+		return aggregation != null ? aggregation : agg;
 	}
 }
@@ -0,0 +1,80 @@
+package ar.edu.itba;
+
+import static org.apache.tinkerpop.gremlin.process.traversal.dsl.graph.__.has;
+import static org.apache.tinkerpop.gremlin.process.traversal.dsl.graph.__.out;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import org.apache.tinkerpop.gremlin.structure.Direction;
+import org.apache.tinkerpop.gremlin.structure.Edge;
+import org.apache.tinkerpop.gremlin.structure.Vertex;
+import org.janusgraph.core.JanusGraph;
+
+/**
+ * Roll up that leaves the graph untouched. Instead of moving the edges of the facts as
+ * {@link Operations#climb(String, String)} does, it keeps in memory the ancestor of each rolled up
+ * member, which is applied when reading the members of a call. Several roll ups can be composed,
+ * and since the view is not modified once built it can be shared by concurrent queries.
+ */
+public class RollUpView {
+
+  private final JanusGraph graph;
+  // Member vertex id to the vertex id of the ancestor it was rolled up to.
+  private final Map<Object, Object> ancestors = new HashMap<>();
+
+  public RollUpView(JanusGraph graph) {
+    this.graph = graph;
+  }
+
+  /**
+   * Maps all the members of type "bottom" to their ancestor of type "top". Members already rolled
+   * up to a "bottom" member are moved up to "top" as well.
+   */
+  public RollUpView rollUp(String bottom, String top) {
+    System.out.println(String.format("Virtual roll up from %s to %s", bottom, top));
+    Map<Object, Object> tops = new HashMap<>();
+    graph.traversal().V().has("type", bottom)
+        .repeat(out("extendsFrom")).until(has("type", top))
+        .path().toStream().forEach(path -> {
+          Vertex start = path.get(0);
+          Vertex end = path.get(path.size() - 1);
+          tops.put(start.id(), end.id());
+        });
+    if (tops.isEmpty()) {
+      throw new IllegalArgumentException(
+          top + " label  vertices not found starting from vertices with label " + bottom);
+    }
+    ancestors.replaceAll((member, ancestor) -> tops.getOrDefault(ancestor, ancestor));
+    tops.forEach(ancestors::putIfAbsent);
+    return this;
+  }
+
+  /**
+   * Vertex id the member is rolled up to.
+   */
+  public Object map(Object memberId) {
+    return ancestors.getOrDefault(memberId, memberId);
+  }
+
+  /**
+   * Vertex ids of the rolled up members the call points to through the given edge labels, one per
+   * edge.
+   */
+  public List<Object> memberIds(Vertex call, String... labels) {
+    List<Object> members = new ArrayList<>();
+    Iterator<Edge> edgesIt = call.edges(Direction.OUT, labels);
+    while (edgesIt.hasNext()) {
+      members.add(map(edgesIt.next().inVertex().id()));
+    }
+    return members;
+  }
+
+  /**
+   * Vertex id of the rolled up member the call points to through the given edge label.
+   */
+  public Object memberId(Vertex call, String label) {
+    return map(call.edges(Direction.OUT, label).next().inVertex().id());
+  }
+}
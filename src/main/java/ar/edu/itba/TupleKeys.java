@@ -0,0 +1,129 @@
+package ar.edu.itba;
+
+import java.util.Arrays;
+
+/**
+ * Long keys of tuples of k member ids, for a {@link GroupAccumulator}. Tuples are packed as
+ * {@link Dictionary#tuple(int...)} does while the ids of their levels fit in 64 / k bits. Past
+ * that, each distinct tuple is numbered as it is first seen and its ids are kept to decode it, so
+ * that large levels still group, only slower.
+ *
+ * Numbering is synchronized, since the keys of a scan are given from several threads.
+ */
+public class TupleKeys {
+
+  /**
+   * Keys of pairs, which always fit packed.
+   */
+  public static final TupleKeys PAIRS = new TupleKeys(2, Integer.MAX_VALUE);
+
+  private final int k;
+  private final boolean packed;
+
+  // Ids of the numbered tuple n, from ids[n * k] to ids[n * k + k - 1].
+  private int[] ids;
+  private int size;
+  // Open addressing table of tuple numbers plus one, 0 if free.
+  private int[] slots;
+
+  /**
+   * Keys of tuples of k ids of levels of up to "members" members.
+   */
+  public TupleKeys(int k, int members) {
+    this.k = k;
+    this.packed = fits(k, members);
+    if (!packed) {
+      ids = new int[16 * k];
+      slots = new int[32];
+    }
+  }
+
+  /**
+   * Whether tuples of k ids of levels of up to "members" members can be packed.
+   */
+  public static boolean fits(int k, int members) {
+    int bits = 64 / k;
+    return bits >= 32 || members <= 1 << bits;
+  }
+
+  public int k() {
+    return k;
+  }
+
+  public boolean isPacked() {
+    return packed;
+  }
+
+  /**
+   * Key of the tuple. The array is not kept, so it can be reused for the next tuple.
+   */
+  public long key(int[] tuple) {
+    return packed ? Dictionary.tuple(tuple) : number(tuple);
+  }
+
+  public long triplet(int id1, int id2, int id3) {
+    return packed ? Dictionary.triplet(id1, id2, id3) : number(new int[] {id1, id2, id3});
+  }
+
+  /**
+   * Id at the given index of the tuple of the key.
+   */
+  public int id(long key, int index) {
+    if (packed) {
+      return Dictionary.tupleId(key, k, index);
+    }
+    synchronized (this) {
+      return ids[(int) key * k + index];
+    }
+  }
+
+  private synchronized long number(int[] tuple) {
+    int mask = slots.length - 1;
+    int slot = hash(tuple, 0) & mask;
+    while (slots[slot] != 0) {
+      int number = slots[slot] - 1;
+      if (matches(number, tuple)) {
+        return number;
+      }
+      slot = (slot + 1) & mask;
+    }
+    if ((size + 1) * k > ids.length) {
+      ids = Arrays.copyOf(ids, ids.length * 2);
+    }
+    System.arraycopy(tuple, 0, ids, size * k, k);
+    slots[slot] = ++size;
+    if (size * 2 > slots.length) {
+      rehash(slots.length * 2);
+    }
+    return size - 1;
+  }
+
+  private boolean matches(int number, int[] tuple) {
+    for (int i = 0; i < k; i++) {
+      if (ids[number * k + i] != tuple[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private void rehash(int capacity) {
+    slots = new int[capacity];
+    int mask = capacity - 1;
+    for (int number = 0; number < size; number++) {
+      int slot = hash(ids, number * k) & mask;
+      while (slots[slot] != 0) {
+        slot = (slot + 1) & mask;
+      }
+      slots[slot] = number + 1;
+    }
+  }
+
+  private int hash(int[] array, int from) {
+    long hash = 1;
+    for (int i = from; i < from + k; i++) {
+      hash = 31 * hash + array[i];
+    }
+    return LongLongMap.hash(hash);
+  }
+}
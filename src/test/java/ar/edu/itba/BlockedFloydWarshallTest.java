@@ -0,0 +1,87 @@
+package ar.edu.itba;
+
+import java.util.Random;
+import junit.framework.TestCase;
+
+public class BlockedFloydWarshallTest extends TestCase {
+
+  private static final int UNREACHABLE = BlockedFloydWarshall.UNREACHABLE;
+
+  public void testRandomGraphs() {
+    // Sizes below, at and past tiles of 64, most of them not multiples of it.
+    for (int size : new int[] {1, 2, 37, 63, 64, 65, 100, 130}) {
+      for (int workers : new int[] {1, 3}) {
+        assertSameDistances(size, 2 * size, size * 31 + workers, workers);
+      }
+    }
+  }
+
+  public void testUnreachablePairs() {
+    // Few edges for the vertices, so most pairs are not connected.
+    assertSameDistances(70, 20, 1, 2);
+    assertSameDistances(129, 0, 2, 2);
+
+    // Directed edges 0 -> 1 -> 2, and 3 apart.
+    BlockedFloydWarshall matrix = new BlockedFloydWarshall(4);
+    matrix.setDistance(0, 1, 5);
+    matrix.setDistance(1, 2, 7);
+    matrix.run(1);
+    assertEquals(12, matrix.distance(0, 2));
+    assertEquals(UNREACHABLE, matrix.distance(2, 0));
+    assertEquals(UNREACHABLE, matrix.distance(0, 3));
+    assertEquals(UNREACHABLE, matrix.distance(3, 0));
+    assertEquals(0, matrix.distance(3, 3));
+  }
+
+  public void testPhoneGraph() {
+    PhoneGraph phones =
+        PhoneGraph.fromCalls(70, new int[][] {{0, 1, 2}, {2, 65}, {65, 69}, {3, 4}});
+    BlockedFloydWarshall matrix = BlockedFloydWarshall.of(phones);
+    matrix.run(2);
+    for (int source = 0; source < phones.size(); source++) {
+      int[] expected = phones.distancesFrom(source, -1);
+      for (int target = 0; target < phones.size(); target++) {
+        assertEquals(expected[target] < 0 ? UNREACHABLE : expected[target],
+            matrix.distance(source, target));
+      }
+    }
+  }
+
+  /**
+   * Compares the blocked version with the naive one over a random directed graph with the given
+   * amount of weighted edges.
+   */
+  private static void assertSameDistances(int size, int edges, long seed, int workers) {
+    Random random = new Random(seed);
+    BlockedFloydWarshall matrix = new BlockedFloydWarshall(size);
+    int[][] expected = new int[size][size];
+    for (int i = 0; i < size; i++) {
+      for (int j = 0; j < size; j++) {
+        expected[i][j] = i == j ? 0 : UNREACHABLE;
+      }
+    }
+    for (int edge = 0; edge < edges; edge++) {
+      int from = random.nextInt(size);
+      int to = random.nextInt(size);
+      int distance = 1 + random.nextInt(10);
+      if (from != to) {
+        matrix.setDistance(from, to, distance);
+        expected[from][to] = distance;
+      }
+    }
+    for (int k = 0; k < size; k++) {
+      for (int i = 0; i < size; i++) {
+        for (int j = 0; j < size; j++) {
+          expected[i][j] = Math.min(expected[i][j], expected[i][k] + expected[k][j]);
+        }
+      }
+    }
+    matrix.run(workers);
+    for (int i = 0; i < size; i++) {
+      for (int j = 0; j < size; j++) {
+        assertEquals("Distance from " + i + " to " + j + " of " + size, expected[i][j],
+            matrix.distance(i, j));
+      }
+    }
+  }
+}
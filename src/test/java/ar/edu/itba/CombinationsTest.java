@@ -0,0 +1,60 @@
+package ar.edu.itba;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import junit.framework.TestCase;
+
+public class CombinationsTest extends TestCase {
+
+  public void testDistinct() {
+    assertTrue(
+        Arrays.equals(new int[] {1, 3, 7}, Combinations.distinct(new int[] {7, 3, 1, 3, 7})));
+    assertTrue(Arrays.equals(new int[0], Combinations.distinct(new int[0])));
+  }
+
+  public void testCombinations() {
+    int[] ids = {4, 1, 3, 2};
+    assertEquals(Arrays.asList("1", "2", "3", "4"), combinations(ids, 1));
+    assertEquals(Arrays.asList("1,2", "1,3", "1,4", "2,3", "2,4", "3,4"), combinations(ids, 2));
+    assertEquals(Arrays.asList("1,2,3", "1,2,4", "1,3,4", "2,3,4"), combinations(ids, 3));
+    assertEquals(Arrays.asList("1,2,3,4"), combinations(ids, 4));
+  }
+
+  public void testRepeatedIds() {
+    // Members of a call reached through several phones are only combined once.
+    int[] ids = {5, 2, 5, 2, 9};
+    assertEquals(Arrays.asList("2,5", "2,9", "5,9"), combinations(ids, 2));
+    assertEquals(Arrays.asList("2,5,9"), combinations(ids, 3));
+    assertEquals(0, combinations(ids, 4).size());
+  }
+
+  public void testNotEnoughIds() {
+    assertEquals(0, combinations(new int[] {1, 2}, 3).size());
+    assertEquals(0, combinations(new int[] {1, 2}, 0).size());
+    assertEquals(0, combinations(new int[0], 1).size());
+  }
+
+  public void testAddKeys() {
+    GroupAccumulator groups = new GroupAccumulator(Aggregation.COUNT);
+    TupleKeys keys = new TupleKeys(3, 100);
+    Combinations.addKeys(new int[] {30, 10, 20, 10}, keys, groups);
+    groups.addCall(1, 1, 1, 1, 1);
+    List<String> tuples = new ArrayList<>();
+    groups.forEach((key, result) -> tuples.add(
+        keys.id(key, 0) + "," + keys.id(key, 1) + "," + keys.id(key, 2)));
+    assertEquals(Arrays.asList("10,20,30"), tuples);
+  }
+
+  private static List<String> combinations(int[] ids, int k) {
+    List<String> combinations = new ArrayList<>();
+    Combinations.forEach(ids, k, combination -> {
+      StringBuilder builder = new StringBuilder();
+      for (int id : combination) {
+        builder.append(builder.length() > 0 ? "," : "").append(id);
+      }
+      combinations.add(builder.toString());
+    });
+    return combinations;
+  }
+}
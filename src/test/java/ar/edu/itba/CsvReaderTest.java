@@ -0,0 +1,119 @@
+package ar.edu.itba;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import junit.framework.TestCase;
+
+public class CsvReaderTest extends TestCase {
+
+  private Path file;
+
+  @Override
+  protected void setUp() throws IOException {
+    file = Files.createTempFile("csv-reader", ".csv");
+  }
+
+  @Override
+  protected void tearDown() throws IOException {
+    Files.deleteIfExists(file);
+  }
+
+  public void testFields() throws IOException {
+    write("\uFEFF1,phone,-42\r\n\n  \n2,,7");
+    try (CsvReader reader = new CsvReader(file)) {
+      assertTrue(reader.next());
+      assertEquals(3, reader.fields());
+      assertEquals(1, reader.longField(0));
+      assertEquals("phone", reader.stringField(1));
+      assertEquals(-42, reader.intField(2));
+      assertTrue(reader.next());
+      assertEquals(2, reader.longField(0));
+      assertEquals(0, reader.fieldLength(1));
+      assertEquals(7, reader.longField(2));
+      assertFalse(reader.next());
+      assertEquals(reader.size(), reader.offset());
+    }
+  }
+
+  public void testRowsAcrossWindows() throws IOException {
+    StringBuilder csv = new StringBuilder();
+    for (int i = 0; i < 100; i++) {
+      csv.append(i).append(",value").append(i).append('\n');
+    }
+    write(csv.toString());
+    // Windows of 16 bytes split most rows.
+    try (CsvReader reader = new CsvReader(file, 0, 16)) {
+      for (int i = 0; i < 100; i++) {
+        assertTrue(reader.next());
+        assertEquals(i, reader.longField(0));
+        assertEquals("value" + i, reader.stringField(1));
+      }
+      assertFalse(reader.next());
+    }
+  }
+
+  public void testResumeFromOffset() throws IOException {
+    write("1,a\n2,b\n3,c\n");
+    long offset;
+    try (CsvReader reader = new CsvReader(file, 0, 5)) {
+      reader.next();
+      reader.next();
+      offset = reader.offset();
+    }
+    try (CsvReader reader = new CsvReader(file, offset, 5)) {
+      assertTrue(reader.next());
+      assertEquals(3, reader.longField(0));
+      assertFalse(reader.next());
+    }
+  }
+
+  public void testRowLongerThanWindow() throws IOException {
+    write("1,a\n2,a row that does not fit\n");
+    try (CsvReader reader = new CsvReader(file, 0, 8)) {
+      assertTrue(reader.next());
+      reader.next();
+      fail("Expecting the row to be rejected");
+    } catch (IOException e) {
+      assertTrue(e.getMessage().startsWith("Row longer than 8 bytes"));
+    }
+  }
+
+  public void testQuotedFields() throws IOException {
+    write("0,padding padding\n\"1\",\"a, b\",\"say \"\"hi\"\"\",\"two\nlines\"\n2,\"\",c\n");
+    // The quoted row ends after the first window, past a quoted line break.
+    try (CsvReader reader = new CsvReader(file, 0, 48)) {
+      assertTrue(reader.next());
+      assertTrue(reader.next());
+      assertEquals(4, reader.fields());
+      assertEquals(1, reader.longField(0));
+      assertEquals("a, b", reader.stringField(1));
+      assertEquals("say \"hi\"", reader.stringField(2));
+      KeyBuilder key = new KeyBuilder();
+      reader.appendField(2, key);
+      assertEquals("say \"hi\"", key.toString());
+      assertEquals("two\nlines", reader.stringField(3));
+      assertTrue(reader.next());
+      assertEquals(2, reader.longField(0));
+      assertEquals("", reader.stringField(1));
+      assertEquals("c", reader.stringField(2));
+      assertFalse(reader.next());
+    }
+  }
+
+  public void testInvalidNumber() throws IOException {
+    write("1x\n");
+    try (CsvReader reader = new CsvReader(file)) {
+      reader.next();
+      reader.longField(0);
+      fail("Expecting an invalid number");
+    } catch (NumberFormatException e) {
+      assertTrue(e.getMessage().startsWith("Invalid number"));
+    }
+  }
+
+  private void write(String csv) throws IOException {
+    Files.write(file, csv.getBytes(StandardCharsets.UTF_8));
+  }
+}
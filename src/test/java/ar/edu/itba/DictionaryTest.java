@@ -0,0 +1,77 @@
+package ar.edu.itba;
+
+import junit.framework.TestCase;
+
+public class DictionaryTest extends TestCase {
+
+  public void testPair() {
+    long pair = Dictionary.pair(Integer.MAX_VALUE, 7);
+    assertEquals(Integer.MAX_VALUE, Dictionary.first(pair));
+    assertEquals(7, Dictionary.second(pair));
+  }
+
+  public void testTupleRoundTrip() {
+    // Largest id of each size of tuple, and ids with every bit of their part set or not.
+    int[][] tuples = {
+        {Integer.MAX_VALUE},
+        {0, Integer.MAX_VALUE},
+        {(1 << 21) - 1, 0, 12345},
+        {(1 << 16) - 1, 1, 0, 4242},
+    };
+    for (int[] tuple : tuples) {
+      long packed = Dictionary.tuple(tuple);
+      for (int i = 0; i < tuple.length; i++) {
+        assertEquals(tuple[i], Dictionary.tupleId(packed, tuple.length, i));
+      }
+    }
+    long triplet = Dictionary.triplet(3, 2, 1);
+    assertEquals(3, Dictionary.tripletId(triplet, 0));
+    assertEquals(2, Dictionary.tripletId(triplet, 1));
+    assertEquals(1, Dictionary.tripletId(triplet, 2));
+  }
+
+  public void testTupleOrder() {
+    // Packed tuples compare as their ids, the first one first.
+    assertTrue(Dictionary.triplet(1, 5, 5) < Dictionary.triplet(2, 0, 0));
+    assertTrue(Dictionary.triplet(1, 2, 5) < Dictionary.triplet(1, 3, 0));
+    assertTrue(Dictionary.tuple(1, 2, 3, 4) < Dictionary.tuple(1, 2, 4, 0));
+  }
+
+  public void testRepeatedIds() {
+    long tuple = Dictionary.tuple(9, 9, 9, 9);
+    for (int i = 0; i < 4; i++) {
+      assertEquals(9, Dictionary.tupleId(tuple, 4, i));
+    }
+    assertTrue(tuple != Dictionary.tuple(9, 9, 9, 8));
+  }
+
+  public void testIdsThatDoNotFit() {
+    try {
+      Dictionary.triplet(1 << 21, 0, 0);
+      fail("Expecting the triplet to be rejected");
+    } catch (IllegalArgumentException e) {
+      assertTrue(e.getMessage().startsWith("Too many members"));
+    }
+    try {
+      Dictionary.tuple(0, 0, 0, 1 << 16);
+      fail("Expecting the tuple to be rejected");
+    } catch (IllegalArgumentException e) {
+      assertTrue(e.getMessage().startsWith("Too many members"));
+    }
+  }
+
+  public void testTupleKeysFallBackToNumbers() {
+    TupleKeys packed = new TupleKeys(3, 1 << 21);
+    assertTrue(packed.isPacked());
+    assertEquals(Dictionary.triplet(1, 2, 3), packed.triplet(1, 2, 3));
+
+    TupleKeys numbered = new TupleKeys(3, (1 << 21) + 1);
+    assertFalse(numbered.isPacked());
+    long key = numbered.triplet(1 << 21, 0, 7);
+    assertEquals(key, numbered.key(new int[] {1 << 21, 0, 7}));
+    assertTrue(key != numbered.triplet(7, 0, 1 << 21));
+    assertEquals(1 << 21, numbered.id(key, 0));
+    assertEquals(0, numbered.id(key, 1));
+    assertEquals(7, numbered.id(key, 2));
+  }
+}
@@ -0,0 +1,90 @@
+package ar.edu.itba;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import junit.framework.TestCase;
+
+public class GroupAccumulatorTest extends TestCase {
+
+  public void testRehash() {
+    GroupAccumulator groups = new GroupAccumulator(Aggregation.SUM);
+    // Enough groups to grow the table several times, each added to twice.
+    for (int round = 0; round < 2; round++) {
+      for (long key = 0; key < 10000; key++) {
+        groups.key(key * 7919);
+        groups.addCall(1, key, key, key, key * key);
+      }
+    }
+    assertEquals(10000, groups.size());
+    Map<Long, Double> results = results(groups);
+    for (long key = 0; key < 10000; key++) {
+      assertEquals(2.0 * key, results.get(key * 7919), 0);
+    }
+  }
+
+  public void testRehashWithStates() {
+    GroupAccumulator groups = new GroupAccumulator(Aggregation.P50);
+    for (long key = 0; key < 1000; key++) {
+      groups.key(key);
+      groups.addCall(AggregateState.of(key));
+    }
+    assertEquals(1000, groups.size());
+    Map<Long, Double> results = results(groups);
+    for (long key = 0; key < 1000; key++) {
+      assertEquals((double) key, results.get(key), 0);
+    }
+  }
+
+  public void testMerge() {
+    GroupAccumulator all = new GroupAccumulator(Aggregation.AVG);
+    GroupAccumulator first = new GroupAccumulator(Aggregation.AVG);
+    GroupAccumulator second = new GroupAccumulator(Aggregation.AVG);
+    Random random = new Random(1);
+    for (int call = 0; call < 5000; call++) {
+      long key = random.nextInt(300);
+      double duration = random.nextInt(3600);
+      // Partial accumulators of disjoint calls, with groups in common.
+      GroupAccumulator partial = call % 2 == 0 ? first : second;
+      for (GroupAccumulator groups : new GroupAccumulator[] {all, partial}) {
+        groups.key(key);
+        groups.key(key + 1000);
+        groups.addCall(1, duration, duration, duration, duration * duration);
+      }
+    }
+    first.merge(second);
+    assertEquals(all.size(), first.size());
+    Map<Long, Double> expected = results(all);
+    Map<Long, Double> merged = results(first);
+    for (Map.Entry<Long, Double> group : expected.entrySet()) {
+      assertEquals(group.getValue(), merged.get(group.getKey()), 1e-9);
+    }
+  }
+
+  public void testRepeatedKeysOfACall() {
+    GroupAccumulator groups = new GroupAccumulator(Aggregation.COUNT);
+    groups.key(1);
+    groups.key(2);
+    groups.key(1);
+    groups.key(1);
+    groups.addCall(1, 10, 10, 10, 100);
+    groups.key(2);
+    groups.addCall(1, 20, 20, 20, 400);
+    Map<Long, Double> results = results(groups);
+    assertEquals(2, results.size());
+    assertEquals(1.0, results.get(1L), 0);
+    assertEquals(2.0, results.get(2L), 0);
+  }
+
+  public void testCallWithoutKeys() {
+    GroupAccumulator groups = new GroupAccumulator(Aggregation.COUNT);
+    groups.addCall(1, 10, 10, 10, 100);
+    assertEquals(0, groups.size());
+  }
+
+  private static Map<Long, Double> results(GroupAccumulator groups) {
+    Map<Long, Double> results = new HashMap<>();
+    groups.forEach((key, result) -> assertNull(results.put(key, result)));
+    return results;
+  }
+}
@@ -0,0 +1,108 @@
+package ar.edu.itba;
+
+import ar.edu.itba.QueryFilters.PhoneFilter;
+import java.util.Arrays;
+import java.util.Random;
+import junit.framework.TestCase;
+
+public class MultiSourceBfsTest extends TestCase {
+
+  public void testRandomGraphs() {
+    // Sizes below, at and past a batch of 64 sources, the last ones with a partial last batch.
+    for (int size : new int[] {1, 10, 64, 65, 130, 200}) {
+      PhoneGraph phones = randomGraph(size, size, size);
+      assertSameDistances(phones, null);
+    }
+  }
+
+  public void testDisconnectedGraph() {
+    // Two components, 0-1-2 and 3-4, and phone 5 without calls.
+    PhoneGraph phones = PhoneGraph.fromCalls(6, new int[][] {{0, 1}, {1, 2}, {3, 4}});
+    int[][] distances = distances(phones, null);
+    assertTrue(Arrays.equals(new int[] {0, 1, 2, -1, -1, -1}, distances[0]));
+    assertTrue(Arrays.equals(new int[] {-1, -1, -1, 1, 0, -1}, distances[4]));
+    assertTrue(Arrays.equals(new int[] {-1, -1, -1, -1, -1, 0}, distances[5]));
+    assertSameDistances(phones, null);
+    assertSameDistances(randomGraph(150, 40, 7), null);
+  }
+
+  public void testCallsOfSeveralPhones() {
+    // Every participant of a call is a neighbor of the others.
+    PhoneGraph phones = PhoneGraph.fromCalls(5, new int[][] {{0, 1, 2}, {2, 3}, {3, 3, 4}});
+    int[][] distances = distances(phones, null);
+    assertTrue(Arrays.equals(new int[] {0, 1, 1, 2, 3}, distances[0]));
+    assertSameDistances(phones, null);
+  }
+
+  public void testRepeatedNeighbors() {
+    // Phone 0 calls every other phone twice, and then all of them take part in one call.
+    int[][] calls = new int[199][];
+    for (int phone = 1; phone < 100; phone++) {
+      calls[2 * phone - 2] = new int[] {0, phone};
+      calls[2 * phone - 1] = new int[] {phone, 0, phone};
+    }
+    calls[198] = new int[100];
+    Arrays.setAll(calls[198], phone -> 99 - phone);
+    PhoneGraph phones = PhoneGraph.fromCalls(100, calls);
+    assertEquals(100 * 99, phones.neighbors().length);
+    for (int phone = 0; phone < 100; phone++) {
+      assertEquals(99, phones.degree(phone));
+      for (int i = 1; i < 99; i++) {
+        assertTrue(phones.neighbors()[phones.offsets()[phone] + i]
+            > phones.neighbors()[phones.offsets()[phone] + i - 1]);
+      }
+    }
+    assertSameDistances(phones, null);
+  }
+
+  public void testFilter() {
+    PhoneFilter filter = (phones, phone1, phone2) -> (phone1 + 2 * phone2) % 3 != 0;
+    PhoneGraph phones = randomGraph(100, 90, 3);
+    int[][] distances = distances(phones, filter);
+    for (int source = 0; source < phones.size(); source++) {
+      int[] expected = phones.distancesFrom(source, -1);
+      for (int target = 0; target < phones.size(); target++) {
+        assertEquals(filter.test(phones, source, target) ? expected[target] : -1,
+            distances[source][target]);
+      }
+    }
+  }
+
+  /**
+   * Phones with random calls of two or three of them, which leaves some of them apart.
+   */
+  private static PhoneGraph randomGraph(int size, int callCount, long seed) {
+    Random random = new Random(seed);
+    int[][] calls = new int[callCount][];
+    for (int call = 0; call < callCount; call++) {
+      calls[call] = new int[2 + random.nextInt(2)];
+      for (int i = 0; i < calls[call].length; i++) {
+        calls[call][i] = random.nextInt(size);
+      }
+    }
+    return PhoneGraph.fromCalls(size, calls);
+  }
+
+  private static void assertSameDistances(PhoneGraph phones, PhoneFilter filter) {
+    int[][] distances = distances(phones, filter);
+    for (int source = 0; source < phones.size(); source++) {
+      assertTrue("Distances from " + source,
+          Arrays.equals(phones.distancesFrom(source, -1), distances[source]));
+    }
+  }
+
+  /**
+   * Distances given by the BFS, -1 for the pairs it did not give, failing on repeated pairs.
+   */
+  private static int[][] distances(PhoneGraph phones, PhoneFilter filter) {
+    int[][] distances = new int[phones.size()][phones.size()];
+    for (int[] row : distances) {
+      Arrays.fill(row, -1);
+    }
+    new MultiSourceBfs(phones).forEachDistance(filter, (source, target, distance) -> {
+      assertEquals("Repeated pair " + source + ", " + target, -1, distances[source][target]);
+      distances[source][target] = distance;
+    });
+    return distances;
+  }
+}